@@ -0,0 +1,109 @@
+package peno.htttp.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+
+/**
+ * In-memory stand-ins for an AMQP connection and channel.
+ * 
+ * <p>
+ * Publishing and queue management do nothing, consumers are recorded so
+ * deliveries can be fed to them directly.
+ * </p>
+ */
+public final class AmqpStubs {
+
+	private static final String QUEUE = "amq.gen-benchmark";
+
+	private AmqpStubs() {
+	}
+
+	/**
+	 * A channel recording its consumer.
+	 */
+	public static final class RecordingChannel implements InvocationHandler {
+
+		private final Channel channel = create(Channel.class, this);
+		private Consumer consumer;
+
+		public Channel getChannel() {
+			return channel;
+		}
+
+		/**
+		 * Get the last consumer which started consuming on this channel.
+		 */
+		public Consumer getConsumer() {
+			return consumer;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("basicConsume")) {
+				consumer = (Consumer) args[args.length - 1];
+				return "benchmark";
+			} else if (name.equals("queueDeclare")) {
+				return create(AMQP.Queue.DeclareOk.class, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return method.getName().equals("getQueue") ? QUEUE : defaultValue(method);
+					}
+				});
+			}
+			return defaultValue(method);
+		}
+
+	}
+
+	/**
+	 * Create a connection which always returns the given channel.
+	 */
+	public static Connection connection(final Channel channel) {
+		return create(Connection.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return method.getName().equals("createChannel") ? channel : defaultValue(method);
+			}
+		});
+	}
+
+	/**
+	 * Create an implementation of the given interface which does nothing.
+	 */
+	public static <T> T noop(Class<T> type) {
+		return create(type, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return defaultValue(method);
+			}
+		});
+	}
+
+	private static <T> T create(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(AmqpStubs.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	private static Object defaultValue(Method method) {
+		Class<?> type = method.getReturnType();
+		if (type == boolean.class) {
+			return false;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0l;
+		} else if (type == double.class) {
+			return 0d;
+		} else if (type.isPrimitive() && type != void.class) {
+			throw new UnsupportedOperationException(method.getName());
+		}
+		return null;
+	}
+
+}
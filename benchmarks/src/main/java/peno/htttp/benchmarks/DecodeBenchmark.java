@@ -0,0 +1,108 @@
+package peno.htttp.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import peno.htttp.Constants;
+import peno.htttp.impl.Consumer;
+import peno.htttp.impl.Message;
+import peno.htttp.impl.MessageHandler;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Decoding a single delivery into its reused message, as done by consumers.
+ * 
+ * <p>
+ * Deliveries go through {@link Consumer#handleDelivery}, so topic dispatch
+ * and decoder selection are included. The payloads are synthetic samples from
+ * {@link GameTrace}, not recorded traffic.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+	@Param({ "heartbeat", "update", "rolled", "seesaw", "join", "vote" })
+	public String topic;
+
+	@Param({ "json", "binary" })
+	public String format;
+
+	private DecodingConsumer consumer;
+	private Envelope envelope;
+	private BasicProperties props;
+	private byte[] body;
+
+	@Setup
+	public void setup() throws IOException {
+		Message sample = GameTrace.createSample(topic);
+		boolean binary = format.equals("binary") && sample.hasBinaryFormat();
+		String routingKey = getRoutingKey(topic);
+		consumer = new DecodingConsumer(new AmqpStubs.RecordingChannel().getChannel(), routingKey,
+				GameTrace.createSample(topic));
+		envelope = new Envelope(1, false, GameTrace.GAME_ID, routingKey);
+		props = new AMQP.BasicProperties.Builder().contentType(
+				binary ? Constants.CONTENT_TYPE_BINARY : Constants.CONTENT_TYPE_JSON).build();
+		body = binary ? GameTrace.toBinary(sample) : GameTrace.toJSON(sample);
+	}
+
+	private static String getRoutingKey(String topic) {
+		if (topic.equals("seesaw")) {
+			return Constants.SEESAW_LOCK;
+		} else if (topic.equals("vote")) {
+			// Replies are routed to the reply queue
+			return "amq.gen-reply";
+		}
+		return topic;
+	}
+
+	@Benchmark
+	public Message decode() throws IOException {
+		consumer.handleDelivery("benchmark", envelope, props, body);
+		return consumer.getMessage();
+	}
+
+	/**
+	 * A consumer decoding a single topic into its message.
+	 */
+	private static class DecodingConsumer extends Consumer {
+
+		private final Message message;
+
+		public DecodingConsumer(Channel channel, String topic, Message message) throws IOException {
+			super(channel);
+			this.message = message;
+			register(topic, message, new MessageHandler<Message>() {
+				@Override
+				public void handleMessage(Message message, BasicProperties props) {
+				}
+			});
+		}
+
+		public Message getMessage() {
+			return message;
+		}
+
+	}
+
+}
@@ -0,0 +1,64 @@
+package peno.htttp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import peno.htttp.impl.Message;
+import peno.htttp.impl.Serializer;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Encoding a single message into a payload, as done when publishing.
+ * 
+ * <p>
+ * Messages go through the same {@link Serializer} as
+ * {@link peno.htttp.PlayerClient}, including setting the content type on the
+ * message properties. Compression is disabled by default, as in the client.
+ * The messages are synthetic samples from {@link GameTrace}.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+	@Param({ "heartbeat", "update", "rolled", "seesaw", "join", "vote" })
+	public String topic;
+
+	@Param({ "json", "binary" })
+	public String format;
+
+	@Param({ "-1" })
+	public int compressionThreshold;
+
+	private Message message;
+	private boolean binary;
+
+	@Setup
+	public void setup() {
+		message = GameTrace.createSample(topic);
+		binary = format.equals("binary");
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		AMQP.BasicProperties.Builder props = new AMQP.BasicProperties.Builder();
+		return Serializer.serialize(message, binary, compressionThreshold, props);
+	}
+
+}
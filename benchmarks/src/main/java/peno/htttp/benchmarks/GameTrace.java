@@ -0,0 +1,329 @@
+package peno.htttp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import peno.htttp.Constants;
+import peno.htttp.GameState;
+import peno.htttp.PlayerDetails;
+import peno.htttp.PlayerType;
+import peno.htttp.impl.BinaryEncoder;
+import peno.htttp.impl.FoundMessage;
+import peno.htttp.impl.HeartbeatMessage;
+import peno.htttp.impl.JSONEncoder;
+import peno.htttp.impl.JoinMessage;
+import peno.htttp.impl.Message;
+import peno.htttp.impl.ReadyMessage;
+import peno.htttp.impl.RollMessage;
+import peno.htttp.impl.SeesawMessage;
+import peno.htttp.impl.SpectatorMessage;
+import peno.htttp.impl.TilesMessage;
+import peno.htttp.impl.UpdateMessage;
+import peno.htttp.impl.VoteMessage;
+
+/**
+ * Deliveries of a four player game, used as benchmark payloads.
+ * 
+ * <p>
+ * The trace follows a typical game: all players join, roll and get ready,
+ * after which they drive through a maze for a minute. Every player publishes
+ * a position update ten times per second and a heart beat every two seconds.
+ * Seesaws are locked and unlocked now and then, and eventually all players
+ * find their object. Tiles and join replies are created separately. The
+ * trace is synthetic rather than recorded from real games. It is generated
+ * from a fixed seed, so every run uses the same payloads.
+ * </p>
+ */
+public final class GameTrace {
+
+	public static final String GAME_ID = "game";
+	public static final String[] PLAYER_IDS = { "brons", "zilver", "goud", "platina" };
+	public static final String[] CLIENT_IDS = { "2f1ef2b6-6a59-4ee0-a0b3-5f0ae5a5ee1b",
+			"8d5c0a3e-1c3b-4b83-9a76-3d3ab1f1f8d2", "c4b9ab02-61c5-4e8c-bd0f-8f1b2c63f1a7",
+			"e6a5d6f4-7a0e-4a0c-8e1f-1b9d5d7e3c2a" };
+
+	private static final String[] TILE_TYPES = { "Straight", "Corner", "T", "DeadEnd", "Cross", "Closed", "Seesaw" };
+	private static final String[] ORIENTATIONS = { "N", "E", "S", "W" };
+
+	private static final int GAME_SECONDS = 60;
+	private static final int UPDATES_PER_SECOND = 10;
+	private static final int HEARTBEAT_SECONDS = 2;
+
+	private GameTrace() {
+	}
+
+	/**
+	 * A recorded delivery.
+	 */
+	public static final class Delivery {
+
+		private final String topic;
+		private final String contentType;
+		private final byte[] body;
+
+		public Delivery(String topic, String contentType, byte[] body) {
+			this.topic = topic;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+		public String getTopic() {
+			return topic;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+	}
+
+	/**
+	 * Get the details of a player.
+	 */
+	public static PlayerDetails getPlayerDetails(int player) {
+		PlayerType type = (player % 2 == 0) ? PlayerType.PHYSICAL : PlayerType.VIRTUAL;
+		return new PlayerDetails(PLAYER_IDS[player], type, 28.5 + player, 20.25 + player);
+	}
+
+	/**
+	 * Get all deliveries of the game on the public topics, in order.
+	 * 
+	 * @param binary
+	 *            True if messages with a binary format should be encoded in
+	 *            that format.
+	 */
+	public static List<Delivery> getDeliveries(boolean binary) {
+		List<Delivery> deliveries = new ArrayList<Delivery>();
+		Random random = new Random(2013);
+		int nbPlayers = PLAYER_IDS.length;
+
+		// Join, roll and ready
+		for (int player = 0; player < nbPlayers; player++) {
+			deliveries.add(delivery(Constants.JOINED, createJoin(player), binary));
+		}
+		for (int player = 0; player < nbPlayers; player++) {
+			deliveries.add(delivery(Constants.ROLL, createRoll(player, random.nextInt()), binary));
+			deliveries.add(delivery(Constants.ROLLED, createRolled(player), binary));
+		}
+		for (int player = 0; player < nbPlayers; player++) {
+			deliveries.add(delivery(Constants.READY, createReady(player), binary));
+		}
+		deliveries.add(delivery(Constants.START, createMessage(0), binary));
+
+		// Drive around
+		long[] x = new long[nbPlayers];
+		long[] y = new long[nbPlayers];
+		double[] angle = new double[nbPlayers];
+		boolean[] found = new boolean[nbPlayers];
+		int ticks = GAME_SECONDS * UPDATES_PER_SECOND;
+		for (int tick = 0; tick < ticks; tick++) {
+			for (int player = 0; player < nbPlayers; player++) {
+				// Move a bit
+				angle[player] = (angle[player] + random.nextGaussian() * 5d + 360d) % 360d;
+				x[player] += Math.round(Math.cos(Math.toRadians(angle[player])) * 4d);
+				y[player] += Math.round(Math.sin(Math.toRadians(angle[player])) * 4d);
+				if (!found[player] && random.nextInt(ticks) < 2) {
+					found[player] = true;
+					deliveries.add(delivery(Constants.FOUND_OBJECT, createFound(player), binary));
+				}
+				deliveries.add(delivery(Constants.UPDATE,
+						createUpdate(player, x[player], y[player], angle[player], found[player]), binary));
+
+				// Heart beat
+				if (tick % (HEARTBEAT_SECONDS * UPDATES_PER_SECOND) == player) {
+					deliveries.add(delivery(Constants.HEARTBEAT, createHeartbeat(player), binary));
+				}
+
+				// Seesaw
+				if (random.nextInt(200) == 0) {
+					int barcode = 5 + random.nextInt(60);
+					deliveries.add(delivery(Constants.SEESAW_LOCK, createSeesaw(player, barcode), binary));
+					deliveries.add(delivery(Constants.SEESAW_UNLOCK, createSeesaw(player, barcode), binary));
+				}
+			}
+		}
+
+		deliveries.add(delivery(Constants.STOP, createMessage(0), binary));
+		return deliveries;
+	}
+
+	/**
+	 * Create a delivery by encoding a message.
+	 */
+	public static Delivery delivery(String topic, Message message, boolean binary) {
+		if (binary && message.hasBinaryFormat()) {
+			return new Delivery(topic, Constants.CONTENT_TYPE_BINARY, toBinary(message));
+		} else {
+			return new Delivery(topic, Constants.CONTENT_TYPE_JSON, toJSON(message));
+		}
+	}
+
+	public static byte[] toJSON(Message message) {
+		JSONEncoder out = JSONEncoder.get();
+		message.write(out);
+		return out.toByteArray();
+	}
+
+	public static byte[] toBinary(Message message) {
+		BinaryEncoder out = BinaryEncoder.get();
+		message.write(out);
+		return out.toByteArray();
+	}
+
+	/*
+	 * Messages
+	 */
+
+	/**
+	 * Create a typical message of the given kind.
+	 * 
+	 * @param kind
+	 *            One of heartbeat, update, rolled, seesaw, join or vote.
+	 */
+	public static Message createSample(String kind) {
+		if (kind.equals("heartbeat")) {
+			return createHeartbeat(1);
+		} else if (kind.equals("update")) {
+			return createUpdate(1, 1043, -217, 87.5, false);
+		} else if (kind.equals("rolled")) {
+			return createRolled(1);
+		} else if (kind.equals("seesaw")) {
+			return createSeesaw(1, 13);
+		} else if (kind.equals("join")) {
+			return createJoin(1);
+		} else if (kind.equals("vote")) {
+			return createJoinReply(1);
+		}
+		throw new IllegalArgumentException("Unknown message kind: " + kind);
+	}
+
+	public static Message createMessage(int player) {
+		Message message = new Message();
+		message.setPlayerID(PLAYER_IDS[player]);
+		return message;
+	}
+
+	public static JoinMessage createJoin(int player) {
+		JoinMessage message = new JoinMessage();
+		message.setPlayerID(PLAYER_IDS[player]);
+		message.setClientID(CLIENT_IDS[player]);
+		return message;
+	}
+
+	public static RollMessage createRoll(int player, int roll) {
+		RollMessage message = new RollMessage();
+		message.setPlayerID(PLAYER_IDS[player]);
+		message.setRoll(roll);
+		return message;
+	}
+
+	public static SpectatorMessage createRolled(int player) {
+		return spectator(new SpectatorMessage(), player);
+	}
+
+	public static ReadyMessage createReady(int player) {
+		ReadyMessage message = new ReadyMessage();
+		message.setPlayerID(PLAYER_IDS[player]);
+		message.setReady(true);
+		return message;
+	}
+
+	public static HeartbeatMessage createHeartbeat(int player) {
+		HeartbeatMessage message = new HeartbeatMessage();
+		message.setPlayerID(PLAYER_IDS[player]);
+		return message;
+	}
+
+	public static UpdateMessage createUpdate(int player, long x, long y, double angle, boolean foundObject) {
+		UpdateMessage message = spectator(new UpdateMessage(), player);
+		message.setPosition(x, y, angle);
+		message.setFoundObject(foundObject);
+		return message;
+	}
+
+	public static FoundMessage createFound(int player) {
+		FoundMessage message = new FoundMessage();
+		message.setPlayerID(PLAYER_IDS[player]);
+		message.setPlayerNumber(player + 1);
+		return message;
+	}
+
+	public static SeesawMessage createSeesaw(int player, int barcode) {
+		SeesawMessage message = spectator(new SeesawMessage(), player);
+		message.setBarcode(barcode);
+		return message;
+	}
+
+	/**
+	 * Create the reply to a join request of the last player.
+	 */
+	public static VoteMessage createJoinReply(int player) {
+		VoteMessage message = new VoteMessage();
+		message.setPlayerID(PLAYER_IDS[player]);
+		message.setClientID(CLIENT_IDS[player]);
+		message.setResult(true);
+		message.setReady(true);
+		message.setJoined(true);
+		message.setGameState(GameState.PLAYING);
+		Map<String, Integer> playerNumbers = new HashMap<String, Integer>();
+		for (int i = 0; i < PLAYER_IDS.length; i++) {
+			playerNumbers.put(PLAYER_IDS[i], i + 1);
+		}
+		message.setPlayerNumbers(playerNumbers);
+		message.setMissingPlayers(Arrays.asList(PLAYER_IDS[PLAYER_IDS.length - 1]));
+		return message;
+	}
+
+	/**
+	 * Create a message with the explored tiles of a square maze.
+	 * 
+	 * <p>
+	 * Tiles are listed row by row, as a player would send them after
+	 * exploring the maze.
+	 * </p>
+	 * 
+	 * @param player
+	 *            The sending player.
+	 * @param nbTiles
+	 *            The number of tiles.
+	 */
+	public static TilesMessage createTiles(int player, int nbTiles) {
+		TilesMessage message = new TilesMessage();
+		message.setPlayerID(PLAYER_IDS[player]);
+		Random random = new Random(nbTiles);
+		int side = (int) Math.ceil(Math.sqrt(nbTiles));
+		for (int i = 0; i < nbTiles; i++) {
+			message.addTile(i % side, i / side, createToken(random));
+		}
+		return message;
+	}
+
+	private static String createToken(Random random) {
+		String type = TILE_TYPES[random.nextInt(TILE_TYPES.length)];
+		if (type.equals("Cross") || type.equals("Closed")) {
+			return type;
+		}
+		String token = type + "." + ORIENTATIONS[random.nextInt(ORIENTATIONS.length)];
+		if (type.equals("Straight") && random.nextInt(10) == 0) {
+			// Barcode
+			token += "." + (5 + random.nextInt(60));
+		}
+		return token;
+	}
+
+	private static <M extends SpectatorMessage> M spectator(M message, int player) {
+		message.setPlayerID(PLAYER_IDS[player]);
+		message.setPlayerDetails(getPlayerDetails(player));
+		message.setPlayerNumber(player + 1);
+		return message;
+	}
+
+}
@@ -0,0 +1,155 @@
+package peno.htttp.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import peno.htttp.Callback;
+import peno.htttp.PlayerClient;
+import peno.htttp.PlayerDetails;
+import peno.htttp.PlayerHandler;
+import peno.htttp.PlayerType;
+
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+/**
+ * Round trip latency of players joining games on a RabbitMQ broker, with and
+ * without direct reply-to.
+ * 
+ * <p>
+ * Players are spread over games of {@link PlayerClient#nbPlayers} players.
+ * Before each operation, all but one player of every game have joined. The
+ * operation ends when the last player of every game has joined, which takes a
+ * single round trip collecting the votes of the other players.
+ * </p>
+ * 
+ * <p>
+ * This benchmark needs a running broker, which is set with the
+ * <code>htttp.broker</code> system property (<code>amqp://localhost</code> by
+ * default).
+ * </p>
+ * 
+ * <p>
+ * This benchmark has not yet been run against a real broker, so the effect of
+ * direct reply-to has not been measured. Compare the results of both values
+ * of {@link #directReplyTo} for the same number of players.
+ * </p>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Thread)
+public class JoinBenchmark {
+
+	@Param({ "4", "16" })
+	public int players;
+
+	@Param({ "true", "false" })
+	public boolean directReplyTo;
+
+	private Connection connection;
+	private final PlayerHandler handler = AmqpStubs.noop(PlayerHandler.class);
+
+	private final List<PlayerClient> waiting = new ArrayList<PlayerClient>();
+	private final List<PlayerClient> joining = new ArrayList<PlayerClient>();
+	private int round;
+
+	@Setup
+	public void connect() throws Exception {
+		ConnectionFactory factory = new ConnectionFactory();
+		factory.setUri(System.getProperty("htttp.broker", "amqp://localhost"));
+		connection = factory.newConnection();
+	}
+
+	@TearDown
+	public void disconnect() throws IOException {
+		connection.close();
+	}
+
+	@Setup(Level.Iteration)
+	public void createGames() throws Throwable {
+		// Use fresh games for every iteration
+		round++;
+		for (int i = 0; i < players; i++) {
+			String gameID = "benchmark-" + round + "-" + (i / PlayerClient.nbPlayers);
+			PlayerDetails details = new PlayerDetails("player" + i, PlayerType.VIRTUAL, 20, 20);
+			PlayerClient client = new PlayerClient(connection, handler, gameID, details);
+			client.setDirectReplyTo(directReplyTo);
+			if (i % PlayerClient.nbPlayers == PlayerClient.nbPlayers - 1) {
+				joining.add(client);
+			} else {
+				waiting.add(client);
+			}
+		}
+
+		// Join all but the last players, which waits for their votes to time out
+		joinAll(waiting, 2 * PlayerClient.requestLifetime);
+	}
+
+	@TearDown(Level.Iteration)
+	public void leaveGames() throws IOException {
+		for (PlayerClient client : joining) {
+			client.leave();
+		}
+		for (PlayerClient client : waiting) {
+			client.leave();
+		}
+		joining.clear();
+		waiting.clear();
+	}
+
+	/**
+	 * The last player of every game joins.
+	 */
+	@Benchmark
+	public void join() throws Throwable {
+		joinAll(joining, PlayerClient.requestLifetime / 2);
+	}
+
+	private static void joinAll(List<PlayerClient> clients, long timeout) throws Throwable {
+		final CountDownLatch joined = new CountDownLatch(clients.size());
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Callback<Void> callback = new Callback<Void>() {
+			@Override
+			public void onSuccess(Void result) {
+				joined.countDown();
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				failure.compareAndSet(null, t);
+				joined.countDown();
+			}
+		};
+		for (PlayerClient client : clients) {
+			client.join(callback);
+		}
+		if (!joined.await(timeout, TimeUnit.MILLISECONDS)) {
+			throw new IllegalStateException("Players did not join in time.");
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+
+}
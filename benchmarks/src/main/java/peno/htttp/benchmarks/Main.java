@@ -0,0 +1,27 @@
+package peno.htttp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled.
+ * 
+ * <p>
+ * All arguments are passed on to JMH. Unless another profiler is requested,
+ * the GC profiler is added so allocation rates are reported next to the
+ * throughput.
+ * </p>
+ */
+public class Main {
+
+	public static void main(String[] args) throws Exception {
+		List<String> jmhArgs = new ArrayList<String>(Arrays.asList(args));
+		if (!jmhArgs.contains("-prof")) {
+			jmhArgs.add("-prof");
+			jmhArgs.add("gc");
+		}
+		org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+	}
+
+}
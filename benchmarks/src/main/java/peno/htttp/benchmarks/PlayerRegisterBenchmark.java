@@ -0,0 +1,82 @@
+package peno.htttp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import peno.htttp.impl.PlayerRegister;
+import peno.htttp.impl.PlayerState;
+
+/**
+ * Player register operations performed while players join and leave a game.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PlayerRegisterBenchmark {
+
+	private final PlayerRegister register = new PlayerRegister();
+	private final PlayerState[] players = new PlayerState[GameTrace.PLAYER_IDS.length];
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < players.length; i++) {
+			players[i] = new PlayerState(GameTrace.CLIENT_IDS[i], GameTrace.PLAYER_IDS[i]);
+			register.confirm(players[i]);
+		}
+	}
+
+	/**
+	 * A full join: every player is voted for, confirmed and checked.
+	 */
+	@Benchmark
+	public void join(Blackhole blackhole) {
+		register.clear();
+		for (PlayerState player : players) {
+			blackhole.consume(register.canJoin(player.getClientID(), player.getPlayerID()));
+			register.vote(player);
+			blackhole.consume(register.isVoted(player.getClientID(), player.getPlayerID()));
+			register.confirm(player);
+		}
+		blackhole.consume(register.getNbConfirmedPlayers());
+	}
+
+	/**
+	 * A player disconnecting and rejoining a running game.
+	 */
+	@Benchmark
+	public void rejoin(Blackhole blackhole) {
+		PlayerState player = players[players.length - 1];
+		register.remove(player.getClientID(), player.getPlayerID());
+		register.setMissing(player.getPlayerID());
+		blackhole.consume(register.hasMissing());
+		blackhole.consume(register.isMissing(player.getPlayerID()));
+		register.confirm(player);
+		blackhole.consume(register.hasMissing());
+	}
+
+	/**
+	 * Lookups done while handling messages of confirmed players.
+	 */
+	@Benchmark
+	public void lookup(Blackhole blackhole) {
+		for (PlayerState player : players) {
+			blackhole.consume(register.isConfirmed(player.getClientID(), player.getPlayerID()));
+			blackhole.consume(register.getConfirmed(player.getPlayerID()));
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package peno.htttp.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import peno.htttp.BatchSpectatorHandler;
+import peno.htttp.SpectatorClient;
+import peno.htttp.SpectatorHandler;
+import peno.htttp.benchmarks.GameTrace.Delivery;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Replaying the deliveries of a game through the consumer of a spectator
+ * client, covering topic dispatch, decoding and handing off to the handler.
+ * 
+ * <p>
+ * With <code>batch</code> enabled, the handler receives player updates in
+ * batches.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpectatorDispatchBenchmark {
+
+	@Param({ "json", "binary" })
+	public String format;
+
+	@Param({ "false", "true" })
+	public boolean batch;
+
+	private SpectatorClient client;
+	private Consumer consumer;
+
+	private Envelope[] envelopes;
+	private BasicProperties[] props;
+	private byte[][] bodies;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		// Start spectating
+		AmqpStubs.RecordingChannel channel = new AmqpStubs.RecordingChannel();
+		SpectatorHandler handler = batch ? AmqpStubs.noop(BatchSpectatorHandler.class) : AmqpStubs
+				.noop(SpectatorHandler.class);
+		client = new SpectatorClient(AmqpStubs.connection(channel.getChannel()), handler, GameTrace.GAME_ID);
+		client.start();
+		consumer = channel.getConsumer();
+
+		// Prepare deliveries
+		List<Delivery> deliveries = GameTrace.getDeliveries(format.equals("binary"));
+		int nbDeliveries = deliveries.size();
+		envelopes = new Envelope[nbDeliveries];
+		props = new BasicProperties[nbDeliveries];
+		bodies = new byte[nbDeliveries][];
+		for (int i = 0; i < nbDeliveries; i++) {
+			Delivery delivery = deliveries.get(i);
+			envelopes[i] = new Envelope(i, false, GameTrace.GAME_ID, delivery.getTopic());
+			props[i] = new AMQP.BasicProperties.Builder().contentType(delivery.getContentType()).build();
+			bodies[i] = delivery.getBody();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.stop();
+	}
+
+	@Benchmark
+	public void dispatch() throws IOException {
+		int i = next;
+		consumer.handleDelivery("benchmark", envelopes[i], props[i], bodies[i]);
+		next = (i + 1 == bodies.length) ? 0 : i + 1;
+	}
+
+}
@@ -0,0 +1,80 @@
+package peno.htttp.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import peno.htttp.TileBatch;
+import peno.htttp.impl.BinaryDecoder;
+import peno.htttp.impl.JSONDecoder;
+import peno.htttp.impl.TilesMessage;
+
+/**
+ * Encoding and decoding batches of maze tiles sent between team partners.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TilesBenchmark {
+
+	/**
+	 * A single explored tile, a corridor and a complete maze.
+	 */
+	@Param({ "1", "20", "2500" })
+	public int nbTiles;
+
+	@Param({ "json", "binary" })
+	public String format;
+
+	private TilesMessage outgoing;
+	private TilesMessage incoming;
+	private byte[] body;
+
+	private final JSONDecoder jsonDecoder = new JSONDecoder();
+	private final BinaryDecoder binaryDecoder = new BinaryDecoder();
+
+	@Setup
+	public void setup() {
+		outgoing = GameTrace.createTiles(0, nbTiles);
+		incoming = new TilesMessage();
+		body = encode();
+	}
+
+	private boolean isBinary() {
+		return format.equals("binary");
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		if (isBinary()) {
+			return GameTrace.toBinary(outgoing);
+		} else {
+			return GameTrace.toJSON(outgoing);
+		}
+	}
+
+	@Benchmark
+	public TileBatch decode() throws IOException {
+		if (isBinary()) {
+			incoming.read(binaryDecoder.reset(body));
+		} else {
+			incoming.read(jsonDecoder.reset(body));
+		}
+		return incoming.takeTiles();
+	}
+
+}
@@ -0,0 +1,31 @@
+package peno.htttp;
+
+/**
+ * A spectator handler which receives player updates in batches.
+ * 
+ * <p>
+ * Instead of calling
+ * {@link #playerUpdate(PlayerDetails, int, long, long, double, boolean)} for
+ * every update, the spectator client collects all updates which arrive while
+ * the handler is busy and delivers them together in a single call to
+ * {@link #playerUpdates(UpdateBatch)}. Like single updates, batches are only
+ * delivered once no other events are pending.
+ * </p>
+ */
+public interface BatchSpectatorHandler extends SpectatorHandler {
+
+	/**
+	 * Invoked with all player updates received since the previous batch.
+	 * 
+	 * <p>
+	 * The batch is reused after this method returns, so implementations must
+	 * not keep a reference to it.
+	 * </p>
+	 * 
+	 * @param updates
+	 *            The player updates, in the order they were received.
+	 * @see #playerUpdate(PlayerDetails, int, long, long, double, boolean)
+	 */
+	public void playerUpdates(UpdateBatch updates);
+
+}
@@ -0,0 +1,252 @@
+package peno.htttp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import peno.htttp.impl.NamedThreadFactory;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * Resources shared by many clients in a single process.
+ * 
+ * <p>
+ * By default, every client creates its own handler thread, publishing thread,
+ * request timeout scheduler and heart beat scheduler. Clients created with a
+ * runtime instead share a fixed pool of handler threads, a single publishing
+ * thread and a single timer, and reuse channels of clients which have
+ * disconnected. Handler events of each client are still
+ * delivered in order.
+ * </p>
+ * 
+ * <p>
+ * The shared threads can be {@link #setVirtualThreads(boolean) virtual
+ * threads}, which defaults to the
+ * {@value peno.htttp.impl.NamedThreadFactory#VIRTUAL_THREADS_PROPERTY} system
+ * property.
+ * </p>
+ * 
+ * <p>
+ * Handlers of clients sharing a runtime should not block for long, as this
+ * holds up a shared handler thread. The runtime must be
+ * {@link #shutdown() shut down} when no longer needed. The connection itself
+ * is not closed by the runtime.
+ * </p>
+ */
+public class ClientRuntime {
+
+	/*
+	 * Constants
+	 */
+	public static final int maxIdleChannels = 16;
+
+	/*
+	 * Communication
+	 */
+	private final Connection connection;
+	private final Deque<Channel> idleChannels = new ArrayDeque<Channel>();
+
+	/*
+	 * Threads
+	 */
+	private final int nbHandlerThreads;
+	private final ExecutorService handlerExecutor;
+	private final ExecutorService publishExecutor;
+	private final ScheduledThreadPoolExecutor timer;
+	private final NamedThreadFactory handlerFactory = new NamedThreadFactory("HTTTP-Handler-%d");
+	private final NamedThreadFactory publisherFactory = new NamedThreadFactory("HTTTP-Publisher-%d");
+	private final NamedThreadFactory timerFactory = new NamedThreadFactory("HTTTP-Timer-%d");
+	private boolean virtualThreads = Boolean.getBoolean(NamedThreadFactory.VIRTUAL_THREADS_PROPERTY);
+
+	private volatile boolean isShutdown = false;
+
+	/**
+	 * Create a client runtime.
+	 * 
+	 * @param connection
+	 *            The AMQP connection for communication.
+	 * @param nbHandlerThreads
+	 *            The number of threads for handling events of all clients.
+	 */
+	public ClientRuntime(Connection connection, int nbHandlerThreads) {
+		if (nbHandlerThreads < 1) {
+			throw new IllegalArgumentException("Invalid number of handler threads: " + nbHandlerThreads);
+		}
+		this.connection = connection;
+		this.nbHandlerThreads = nbHandlerThreads;
+		this.handlerExecutor = Executors.newFixedThreadPool(nbHandlerThreads, handlerFactory);
+		// All clients write to the same connection
+		this.publishExecutor = Executors.newSingleThreadExecutor(publisherFactory);
+		this.timer = new ScheduledThreadPoolExecutor(1, timerFactory);
+		// Heart beats and timeouts are cancelled often
+		this.timer.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Create a client runtime with a handler thread per available processor.
+	 * 
+	 * @param connection
+	 *            The AMQP connection for communication.
+	 */
+	public ClientRuntime(Connection connection) {
+		this(connection, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Get the AMQP connection for communication.
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Get the number of threads for handling events.
+	 */
+	public int getNbHandlerThreads() {
+		return nbHandlerThreads;
+	}
+
+	/**
+	 * Check whether the shared threads of this runtime are virtual threads.
+	 */
+	public synchronized boolean isVirtualThreads() {
+		return virtualThreads && NamedThreadFactory.isVirtualSupported();
+	}
+
+	/**
+	 * Set whether the shared threads of this runtime are virtual threads.
+	 * 
+	 * <p>
+	 * Threads are started as clients use the runtime, so this must be set
+	 * before creating clients. When the Java runtime does not support virtual
+	 * threads, platform threads are used regardless.
+	 * </p>
+	 * 
+	 * @param virtual
+	 *            True to use virtual threads.
+	 * @throws IllegalStateException
+	 *             If the shared threads have already been started.
+	 */
+	public synchronized void setVirtualThreads(boolean virtual) throws IllegalStateException {
+		if (handlerFactory.hasCreatedThreads() || publisherFactory.hasCreatedThreads()
+				|| timerFactory.hasCreatedThreads()) {
+			throw new IllegalStateException("Client runtime threads have already been started.");
+		}
+		handlerFactory.setVirtual(virtual);
+		publisherFactory.setVirtual(virtual);
+		timerFactory.setVirtual(virtual);
+		this.virtualThreads = virtual;
+	}
+
+	/**
+	 * Get the executor on which client handler events are drained.
+	 */
+	ExecutorService getHandlerExecutor() {
+		return handlerExecutor;
+	}
+
+	/**
+	 * Get the executor on which client messages are published.
+	 */
+	ExecutorService getPublishExecutor() {
+		return publishExecutor;
+	}
+
+	/**
+	 * Get the timer for heart beats and request timeouts.
+	 */
+	ScheduledExecutorService getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Open a channel, reusing an idle channel if available.
+	 * 
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 *             If this runtime has been shut down.
+	 */
+	Channel openChannel() throws IOException, IllegalStateException {
+		if (isShutdown()) {
+			throw new IllegalStateException("Client runtime has been shut down.");
+		}
+		synchronized (idleChannels) {
+			Channel channel;
+			while ((channel = idleChannels.poll()) != null) {
+				if (channel.isOpen())
+					return channel;
+			}
+		}
+		return connection.createChannel();
+	}
+
+	/**
+	 * Close a channel, or keep it open for reuse.
+	 * 
+	 * <p>
+	 * The channel must no longer be used by its previous owner, so channels
+	 * which may still be publishing must be closed instead.
+	 * </p>
+	 * 
+	 * @param channel
+	 *            The channel.
+	 */
+	void closeChannel(Channel channel) {
+		if (!channel.isOpen())
+			return;
+		synchronized (idleChannels) {
+			if (!isShutdown() && idleChannels.size() < maxIdleChannels) {
+				idleChannels.push(channel);
+				return;
+			}
+		}
+		close(channel);
+	}
+
+	/**
+	 * Check whether this runtime has been shut down.
+	 */
+	public boolean isShutdown() {
+		return isShutdown;
+	}
+
+	/**
+	 * Shut down this runtime.
+	 * 
+	 * <p>
+	 * Idle channels are closed and the shared threads are stopped once pending
+	 * events have been handled. Clients using this runtime should be
+	 * disconnected first.
+	 * </p>
+	 */
+	public void shutdown() {
+		synchronized (idleChannels) {
+			if (isShutdown)
+				return;
+			isShutdown = true;
+			Channel channel;
+			while ((channel = idleChannels.poll()) != null) {
+				close(channel);
+			}
+		}
+		timer.shutdown();
+		handlerExecutor.shutdown();
+		publishExecutor.shutdown();
+	}
+
+	private static void close(Channel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+		} catch (ShutdownSignalException e) {
+		}
+	}
+
+}
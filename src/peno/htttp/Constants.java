@@ -88,6 +88,7 @@ public interface Constants {
 	 */
 	public static final String TEAM_PING = "ping";
 	public static final String TEAM_TILE = "tile";
+	public static final String TEAM_TILE_RESYNC = "tileResync";
 
 	public static final String TILES = "tiles";
 
@@ -96,4 +97,37 @@ public interface Constants {
 	 */
 	public static final String VOTE_RESULT = "result";
 
+	/*
+	 * Content types
+	 */
+	public static final String CONTENT_TYPE_JSON = "text/plain";
+	public static final String CONTENT_TYPE_BINARY = "application/x-htttp-binary";
+
+	/*
+	 * Content encodings
+	 */
+	public static final String CONTENT_ENCODING_DEFLATE = "deflate";
+
+	/*
+	 * Sender headers
+	 */
+	public static final String HEADER_VERSION = "htttp-version";
+	public static final String HEADER_CLIENT_ID = "htttp-client-id";
+	public static final String HEADER_PLAYER_ID = "htttp-player-id";
+	public static final String HEADER_PLAYER_NUMBER = "htttp-player-number";
+
+	public static final int PROTOCOL_VERSION = 1;
+
+	/*
+	 * Priorities
+	 */
+	public static final String QUEUE_MAX_PRIORITY = "x-max-priority";
+	public static final int PRIORITY_TELEMETRY = 0;
+	public static final int PRIORITY_CONTROL = 1;
+
+	/*
+	 * Replies
+	 */
+	public static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+
 }
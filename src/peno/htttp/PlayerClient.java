@@ -1,18 +1,15 @@
 package peno.htttp;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -20,23 +17,53 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import peno.htttp.impl.Consumer;
+import peno.htttp.impl.DisconnectMessage;
+import peno.htttp.impl.EventLoop;
+import peno.htttp.impl.FoundMessage;
+import peno.htttp.impl.HeartbeatMessage;
+import peno.htttp.impl.JoinMessage;
+import peno.htttp.impl.Message;
+import peno.htttp.impl.MessageHandler;
 import peno.htttp.impl.NamedThreadFactory;
 import peno.htttp.impl.PlayerRegister;
 import peno.htttp.impl.PlayerRoll;
 import peno.htttp.impl.PlayerState;
+import peno.htttp.impl.Publisher;
+import peno.htttp.impl.ReadyMessage;
+import peno.htttp.impl.ReplyConsumer;
 import peno.htttp.impl.RequestProvider;
 import peno.htttp.impl.Requester;
+import peno.htttp.impl.RollMessage;
+import peno.htttp.impl.SeesawMessage;
+import peno.htttp.impl.SenderHeaders;
+import peno.htttp.impl.Serializer;
+import peno.htttp.impl.SpectatorMessage;
+import peno.htttp.impl.TileDictionary;
+import peno.htttp.impl.TilesMessage;
+import peno.htttp.impl.Topic;
+import peno.htttp.impl.UpdateMessage;
+import peno.htttp.impl.VoteMessage;
 import peno.htttp.impl.VoteRequester;
+import peno.htttp.impl.WinMessage;
 
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ShutdownSignalException;
-import com.rabbitmq.tools.json.JSONWriter;
 
 /**
  * A client for playing a game over the HTTTP protocol.
+ * 
+ * <p>
+ * Game state transitions, such as players joining and the game starting or
+ * stopping, are guarded by the monitor of this client. Handler events raised
+ * by these transitions are queued while holding the monitor, so they keep
+ * the order of the transitions, but handlers are always called outside it,
+ * also in {@link #setDirectDispatch(boolean) direct mode}. Queueing handler
+ * events or messages never blocks. With virtual threads before Java 24, a
+ * thread holding the monitor still pins its carrier thread while it runs.
+ * </p>
  */
 public class PlayerClient {
 
@@ -47,19 +74,31 @@ public class PlayerClient {
 	public static final int requestLifetime = 2000;
 	public static final int heartbeatFrequency = 2000;
 	public static final int heartbeatLifetime = 5000;
+	public static final int defaultMaxPendingEvents = 1024;
+	public static final int flushTimeout = 2000;
 
 	/*
 	 * Communication
 	 */
 	private final Connection connection;
+	private final ClientRuntime runtime;
 	private Channel channel;
+	private Publisher publisher;
 	private RequestProvider requestProvider;
+	private ReplyConsumer replyConsumer;
 	private final PlayerHandler handler;
 	private Consumer joinConsumer;
 	private Consumer publicConsumer;
 	private Consumer teamConsumer;
-	private final ExecutorService handlerExecutor;
+	private final EventLoop handlerExecutor;
+	private volatile int maxPendingEvents;
+	private volatile boolean conflatingUpdates = false;
+	private volatile boolean directReplyTo = true;
+	private volatile boolean dedicatedChannels = false;
+	private volatile Map<String, Object> senderHeaders;
+	private volatile int localPlayerNumber = 0;
 	private static final ThreadFactory handlerFactory = new NamedThreadFactory("HTTTP-PlayerHandler-%d");
+	private static final ThreadFactory publisherFactory = new NamedThreadFactory("HTTTP-Publisher-%d");
 
 	/*
 	 * Persistent
@@ -93,12 +132,26 @@ public class PlayerClient {
 	 */
 	private int teamNumber = -1;
 	private String teamPartner = null;
+	private final TileDictionary tileDictionary = new TileDictionary();
+	private volatile int tileResyncSession = TileDictionary.MESSAGE_SESSION;
 
 	/*
 	 * Seesaw
 	 */
 	private int seesawLock = 0;
 
+	/*
+	 * Encoding
+	 */
+	private volatile boolean binaryEncoding = false;
+	private volatile int compressionThreshold = -1;
+	private static final ThreadLocal<UpdateMessage> updateMessages = new ThreadLocal<UpdateMessage>() {
+		@Override
+		protected UpdateMessage initialValue() {
+			return new UpdateMessage();
+		}
+	};
+
 	/**
 	 * Create a game client.
 	 * 
@@ -114,7 +167,32 @@ public class PlayerClient {
 	 */
 	public PlayerClient(Connection connection, PlayerHandler handler, String gameID, PlayerDetails playerDetails)
 			throws IOException {
+		this(connection, null, handler, gameID, playerDetails);
+	}
+
+	/**
+	 * Create a game client which shares the resources of a client runtime.
+	 * 
+	 * @param runtime
+	 *            The client runtime.
+	 * @param handler
+	 *            The event handler which listens to this client.
+	 * @param gameID
+	 *            The game identifier.
+	 * @param playerDetails
+	 *            The local player's details.
+	 * @throws IOException
+	 * @see ClientRuntime
+	 */
+	public PlayerClient(ClientRuntime runtime, PlayerHandler handler, String gameID, PlayerDetails playerDetails)
+			throws IOException {
+		this(runtime.getConnection(), runtime, handler, gameID, playerDetails);
+	}
+
+	private PlayerClient(Connection connection, ClientRuntime runtime, PlayerHandler handler, String gameID,
+			PlayerDetails playerDetails) throws IOException {
 		this.connection = connection;
+		this.runtime = runtime;
 		this.handler = handler;
 		this.gameID = gameID;
 		this.localPlayerDetails = playerDetails;
@@ -122,7 +200,12 @@ public class PlayerClient {
 		String clientID = UUID.randomUUID().toString();
 		this.localPlayer = new PlayerState(clientID, playerDetails.getPlayerID());
 
-		this.handlerExecutor = Executors.newCachedThreadPool(handlerFactory);
+		if (runtime != null) {
+			this.handlerExecutor = new EventLoop(runtime.getHandlerExecutor());
+		} else {
+			this.handlerExecutor = new EventLoop(handlerFactory);
+		}
+		setMaxPendingEvents(defaultMaxPendingEvents);
 	}
 
 	/**
@@ -170,6 +253,315 @@ public class PlayerClient {
 		return getGameState() != GameState.DISCONNECTED;
 	}
 
+	/**
+	 * Check whether messages are published in the binary format when
+	 * possible.
+	 */
+	public boolean isBinaryEncoding() {
+		return binaryEncoding;
+	}
+
+	/**
+	 * Set whether messages are published in the binary format when possible.
+	 * 
+	 * <p>
+	 * Position updates, seesaw locks, heart beats, rolls and tiles are then
+	 * published in a compact binary format, signalled through the content type
+	 * of the message. All other messages are still published as JSON.
+	 * </p>
+	 * 
+	 * <p>
+	 * Received messages are always decoded according to their content type,
+	 * regardless of this setting. Only enable this when all other players and
+	 * spectators in the game support the binary format.
+	 * </p>
+	 * 
+	 * @param binaryEncoding
+	 *            True if the binary format should be used.
+	 */
+	public void setBinaryEncoding(boolean binaryEncoding) {
+		this.binaryEncoding = binaryEncoding;
+	}
+
+	/**
+	 * Get the payload size above which messages are compressed.
+	 * 
+	 * @return The threshold in bytes, or a negative value if compression is
+	 *         disabled.
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * Set the payload size above which messages are compressed.
+	 * 
+	 * <p>
+	 * Larger messages, such as tiles and game state replies, are then
+	 * compressed with the deflate algorithm, signalled through the content
+	 * encoding of the message. Smaller messages are never compressed.
+	 * </p>
+	 * 
+	 * <p>
+	 * Received messages are always decompressed according to their content
+	 * encoding, regardless of this setting. Only enable this when all other
+	 * players and spectators in the game support compression.
+	 * </p>
+	 * 
+	 * @param compressionThreshold
+	 *            The threshold in bytes, or a negative value to disable
+	 *            compression.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Get the number of handler events which are queued but not yet handled.
+	 * 
+	 * <p>
+	 * Events are delivered to the handler one by one, in the order in which
+	 * they occurred. Position updates of the partner are only delivered once
+	 * no other events are pending. A growing number of pending events
+	 * indicates that the handler cannot keep up.
+	 * </p>
+	 */
+	public int getPendingEvents() {
+		return handlerExecutor.getQueueDepth();
+	}
+
+	/**
+	 * Get the maximum number of pending handler events, or zero if unbounded.
+	 */
+	public int getMaxPendingEvents() {
+		return maxPendingEvents;
+	}
+
+	/**
+	 * Set the maximum number of pending handler events.
+	 * 
+	 * <p>
+	 * When the handler cannot keep up and this limit is reached, only the
+	 * newest position update of each player is kept and new position updates
+	 * are dropped. Other events are never dropped, but are queued beyond the
+	 * limit and counted as {@link #getOverflowedEvents() overflowed}. Receiving
+	 * messages never blocks, as the receiving thread may be shared with other
+	 * clients on the same connection.
+	 * </p>
+	 * 
+	 * @param maxPendingEvents
+	 *            The maximum number of pending events, or zero for no limit.
+	 */
+	public void setMaxPendingEvents(int maxPendingEvents) {
+		handlerExecutor.setCapacity(maxPendingEvents);
+		this.maxPendingEvents = maxPendingEvents;
+	}
+
+	/**
+	 * Get the number of position updates which were replaced by a newer update
+	 * before they could be handled.
+	 */
+	public long getCoalescedEvents() {
+		return handlerExecutor.getCoalescedCount();
+	}
+
+	/**
+	 * Get the number of position updates which were dropped because too many
+	 * events were pending.
+	 */
+	public long getDroppedEvents() {
+		return handlerExecutor.getDroppedCount();
+	}
+
+	/**
+	 * Get the number of events which were queued beyond the maximum number of
+	 * pending events, because the handler did not keep up.
+	 */
+	public long getOverflowedEvents() {
+		return handlerExecutor.getOverflowCount();
+	}
+
+	/**
+	 * Check whether handler events are dispatched directly.
+	 */
+	public boolean isDirectDispatch() {
+		return handlerExecutor.isDirect();
+	}
+
+	/**
+	 * Set whether handler events are dispatched directly.
+	 * 
+	 * <p>
+	 * By default, handler events are handed off to a separate handler thread,
+	 * so a slow handler never holds up the client. In direct mode, the handler
+	 * is invoked immediately on the thread which raised the event instead:
+	 * the delivery thread for received messages, the heart beat thread for
+	 * time outs, or the calling thread for local actions. This avoids the hand
+	 * off latency, but comes with a contract for the handler:
+	 * </p>
+	 * <ul>
+	 * <li>It must return quickly and never block, since it holds up the
+	 * delivery of all further messages.</li>
+	 * <li>It must be thread-safe, since events raised on different threads may
+	 * be handled concurrently.</li>
+	 * </ul>
+	 * <p>
+	 * Events raised by game state transitions, such as players joining or the
+	 * game starting, are handled after the transition has completed and the
+	 * client monitor has been released. Events raised concurrently on
+	 * different threads may therefore be handled in a different order than
+	 * their transitions.
+	 * </p>
+	 * <p>
+	 * Handler invocations are timed by a watchdog. Invocations exceeding the
+	 * {@link #setHandlerTimeBudget(long, TimeUnit) time budget} are counted in
+	 * {@link #getOverBudgetEvents()}.
+	 * </p>
+	 * 
+	 * @param directDispatch
+	 *            True to dispatch handler events directly.
+	 * @throws IllegalStateException
+	 *             If connected.
+	 */
+	public void setDirectDispatch(boolean directDispatch) throws IllegalStateException {
+		if (isConnected()) {
+			throw new IllegalStateException("Cannot change dispatch mode when connected.");
+		}
+		handlerExecutor.setDirect(directDispatch);
+	}
+
+	/**
+	 * Get the time budget of a directly dispatched handler event.
+	 * 
+	 * @param unit
+	 *            The time unit of the result.
+	 */
+	public long getHandlerTimeBudget(TimeUnit unit) {
+		return handlerExecutor.getTimeBudget(unit);
+	}
+
+	/**
+	 * Set the time budget of a directly dispatched handler event. Defaults to
+	 * one millisecond.
+	 * 
+	 * @param budget
+	 *            The time budget.
+	 * @param unit
+	 *            The time unit of the budget.
+	 */
+	public void setHandlerTimeBudget(long budget, TimeUnit unit) {
+		handlerExecutor.setTimeBudget(budget, unit);
+	}
+
+	/**
+	 * Get the number of directly dispatched handler events which took longer
+	 * than the time budget.
+	 */
+	public long getOverBudgetEvents() {
+		return handlerExecutor.getOverBudgetCount();
+	}
+
+	/**
+	 * Get the longest time taken by a directly dispatched handler event.
+	 * 
+	 * @param unit
+	 *            The time unit of the result.
+	 */
+	public long getMaxHandlerTime(TimeUnit unit) {
+		return handlerExecutor.getMaxRunTime(unit);
+	}
+
+	/**
+	 * Check whether replies to requests are received through direct reply-to
+	 * when the broker supports it.
+	 */
+	public boolean isDirectReplyTo() {
+		return directReplyTo;
+	}
+
+	/**
+	 * Set whether replies to requests are received through direct reply-to
+	 * when the broker supports it.
+	 * 
+	 * <p>
+	 * Replies to join votes and team pings are transient. With direct
+	 * reply-to, they are delivered straight to the requesting client instead
+	 * of being routed through a reply queue. Brokers without support for
+	 * direct reply-to always use a reply queue. Enabled by default.
+	 * </p>
+	 * 
+	 * @param directReplyTo
+	 *            True to use direct reply-to when supported.
+	 * @throws IllegalStateException
+	 *             If connected.
+	 */
+	public void setDirectReplyTo(boolean directReplyTo) throws IllegalStateException {
+		if (isConnected()) {
+			throw new IllegalStateException("Cannot change reply mode when connected.");
+		}
+		this.directReplyTo = directReplyTo;
+	}
+
+	/**
+	 * Check whether the public and team consumers receive messages on
+	 * dedicated channels.
+	 */
+	public boolean isDedicatedChannels() {
+		return dedicatedChannels;
+	}
+
+	/**
+	 * Set whether the public and team consumers receive messages on dedicated
+	 * channels.
+	 * 
+	 * <p>
+	 * By default, all consumers share a single channel with the published
+	 * messages, so all deliveries are handled one after the other on a single
+	 * dispatch thread. With dedicated channels, game broadcasts such as
+	 * position updates and team tiles are decoded in parallel with join and
+	 * vote traffic. Messages received on different channels are no longer
+	 * handled in the order in which they were published.
+	 * </p>
+	 * 
+	 * @param dedicatedChannels
+	 *            True to use dedicated channels.
+	 * @throws IllegalStateException
+	 *             If connected.
+	 */
+	public void setDedicatedChannels(boolean dedicatedChannels) throws IllegalStateException {
+		if (isConnected()) {
+			throw new IllegalStateException("Cannot change channels when connected.");
+		}
+		this.dedicatedChannels = dedicatedChannels;
+	}
+
+	/**
+	 * Check whether pending partner position updates are merged into the newest
+	 * one.
+	 */
+	public boolean isConflatingUpdates() {
+		return conflatingUpdates;
+	}
+
+	/**
+	 * Set whether pending partner position updates are merged into the newest
+	 * one.
+	 * 
+	 * <p>
+	 * When enabled, a new update replaces a pending update which has not yet
+	 * been handled, so the handler only receives the most recent position of
+	 * the partner. When disabled, every update is delivered unless too many
+	 * events are pending.
+	 * </p>
+	 * 
+	 * @param conflatingUpdates
+	 *            True to merge pending updates.
+	 */
+	public void setConflatingUpdates(boolean conflatingUpdates) {
+		handlerExecutor.setConflating(conflatingUpdates);
+		this.conflatingUpdates = conflatingUpdates;
+	}
+
 	/*
 	 * Player tracking
 	 */
@@ -371,7 +763,7 @@ public class PlayerClient {
 		setupPublic();
 		if (hasPlayerNumber()) {
 			// Already rolled
-			handlerExecutor.submit(new Runnable() {
+			handlerExecutor.execute(new Runnable() {
 				@Override
 				public void run() {
 					handler.gameRolled(getPlayerNumber(), getObjectNumber());
@@ -385,30 +777,28 @@ public class PlayerClient {
 
 	private void playerJoining(String clientID, final String playerID, BasicProperties props) throws IOException {
 		// Retrieve game state before voting
-		Map<String, Object> gameState = writeGameState();
+		VoteMessage reply = newMessage(new VoteMessage());
+		writeGameState(reply);
 
 		// Check if accepted
 		boolean isAccepted = canJoin(clientID, playerID);
 		// Vote for player
 		votePlayer(clientID, playerID);
 
-		// Create and send reply
-		Map<String, Object> reply = newMessage();
-		reply.put(Constants.VOTE_RESULT, isAccepted);
+		// Complete and send reply
+		reply.setResult(isAccepted);
 		// Add data if accepted
 		if (isAccepted) {
 			// Report own player state
 			PlayerState player = getLocalPlayer();
-			reply.put(Constants.CLIENT_ID, player.getClientID());
-			reply.put(Constants.IS_READY, player.isReady());
-			reply.put(Constants.IS_JOINED, isJoined());
-			// Report game state
-			reply.putAll(gameState);
+			reply.setClientID(player.getClientID());
+			reply.setReady(player.isReady());
+			reply.setJoined(isJoined());
 		}
 		reply(props, reply);
 
 		// Call handler
-		handlerExecutor.submit(new Runnable() {
+		handlerExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
 				handler.playerJoining(playerID);
@@ -416,18 +806,22 @@ public class PlayerClient {
 		});
 	}
 
-	private synchronized void playerJoined(String clientID, final String playerID) throws IOException {
-		// Confirm player
-		confirmPlayer(clientID, playerID, false);
-		// Call handler
-		handlerExecutor.submit(new Runnable() {
-			@Override
-			public void run() {
-				handler.playerJoined(playerID);
-			}
-		});
-		// Try to roll
-		tryRoll();
+	private void playerJoined(String clientID, final String playerID) throws IOException {
+		Runnable event;
+		synchronized (this) {
+			// Confirm player
+			confirmPlayer(clientID, playerID, false);
+			// Call handler
+			event = raise(new Runnable() {
+				@Override
+				public void run() {
+					handler.playerJoined(playerID);
+				}
+			});
+			// Try to roll
+			tryRoll();
+		}
+		dispatch(event);
 	}
 
 	/**
@@ -449,7 +843,9 @@ public class PlayerClient {
 	private void disconnect(DisconnectReason reason) throws IOException {
 		// Reset game
 		resetGame();
-		// Stop request provider
+		// Stop requests
+		replyConsumer.terminate();
+		replyConsumer = null;
 		requestProvider.terminate();
 		requestProvider = null;
 		try {
@@ -460,31 +856,42 @@ public class PlayerClient {
 			// Stop heart beats
 			heartbeatStop();
 			// Publish leave
-			Map<String, Object> message = newMessage();
-			message.put(Constants.CLIENT_ID, getClientID());
-			message.put(Constants.DISCONNECT_REASON, reason.name());
+			DisconnectMessage message = newMessage(new DisconnectMessage());
+			message.setClientID(getClientID());
+			message.setReason(reason);
 			publish(Constants.DISCONNECT, message);
 		} catch (IOException e) {
 			throw e;
 		} catch (ShutdownSignalException e) {
 		} finally {
 			try {
-				// Shut down channel
-				channel.close();
+				// Publish queued messages
+				boolean flushed = publisher.close(flushTimeout, TimeUnit.MILLISECONDS);
+				// Shut down channel, only reused when no longer publishing
+				if (flushed && publisher.getFailure() == null) {
+					closeChannel(channel);
+				} else {
+					channel.close();
+				}
 			} catch (IOException e) {
 			} catch (ShutdownSignalException e) {
 			} finally {
+				publisher = null;
 				channel = null;
 			}
 		}
 	}
 
-	private synchronized void playerDisconnected(final String clientID, final String playerID,
+	private void playerDisconnected(String clientID, String playerID, DisconnectReason reason) {
+		dispatch(playerDisconnectedState(clientID, playerID, reason));
+	}
+
+	private synchronized Runnable playerDisconnectedState(String clientID, final String playerID,
 			final DisconnectReason reason) {
 		// Ignore if player has already disconnected
 		// Can occur when receiving multiple heart beat timeout disconnects
 		if (!isPlayerConnected(clientID, playerID))
-			return;
+			return null;
 
 		switch (getGameState()) {
 		case JOINING:
@@ -512,22 +919,17 @@ public class PlayerClient {
 			break;
 		}
 
-		// Call disconnect handler
-		handlerExecutor.submit(new Runnable() {
+		// Call disconnect handler, and team disconnect handler if lost partner
+		final boolean isTeamPartner = hasTeamPartner() && getTeamPartner().equals(playerID);
+		return raise(new Runnable() {
 			@Override
 			public void run() {
 				handler.playerDisconnected(playerID, reason);
-			}
-		});
-		// Call team disconnect handler if lost partner
-		if (hasTeamPartner() && getTeamPartner().equals(playerID)) {
-			handlerExecutor.submit(new Runnable() {
-				@Override
-				public void run() {
+				if (isTeamPartner) {
 					handler.teamDisconnected(playerID);
 				}
-			});
-		}
+			}
+		});
 	}
 
 	/*
@@ -584,8 +986,8 @@ public class PlayerClient {
 
 		if (isReady != isReady()) {
 			// Publish updated state
-			Map<String, Object> message = newMessage();
-			message.put(Constants.IS_READY, isReady);
+			ReadyMessage message = newMessage(new ReadyMessage());
+			message.setReady(isReady);
 			publish(Constants.READY, message);
 
 			// Start game if others are already playing
@@ -602,7 +1004,7 @@ public class PlayerClient {
 			player.setReady(isReady);
 		}
 		// Call handler
-		handlerExecutor.submit(new Runnable() {
+		handlerExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
 				handler.playerReady(playerID, isReady);
@@ -638,7 +1040,7 @@ public class PlayerClient {
 		}
 
 		// Publish
-		publish(Constants.START, null);
+		publish(Constants.START, newMessage());
 	}
 
 	private void tryStart() throws IOException {
@@ -647,14 +1049,18 @@ public class PlayerClient {
 		}
 	}
 
-	private synchronized void started(boolean force) {
+	private void started(boolean force) {
+		dispatch(startedState(force));
+	}
+
+	private synchronized Runnable startedState(boolean force) {
 		if (!force && isPlaying())
-			return;
+			return null;
 
 		// Update game state
 		setGameState(GameState.PLAYING);
 		// Call handler
-		handlerExecutor.submit(new Runnable() {
+		return raise(new Runnable() {
 			@Override
 			public void run() {
 				handler.gameStarted();
@@ -681,13 +1087,17 @@ public class PlayerClient {
 
 		// Publish
 		if (channel.isOpen()) {
-			publish(Constants.STOP, null);
+			publish(Constants.STOP, newMessage());
 		}
 	}
 
-	private synchronized void stopped(boolean force) throws IOException {
+	private void stopped(boolean force) throws IOException {
+		dispatch(stoppedState(force));
+	}
+
+	private synchronized Runnable stoppedState(boolean force) throws IOException {
 		if (!force && !isPlaying())
-			return;
+			return null;
 
 		// Update game state
 		setGameState(GameState.WAITING);
@@ -700,7 +1110,7 @@ public class PlayerClient {
 		// Set as not ready
 		setReady(false);
 		// Call handler
-		handlerExecutor.submit(new Runnable() {
+		return raise(new Runnable() {
 			@Override
 			public void run() {
 				handler.gameStopped();
@@ -708,6 +1118,41 @@ public class PlayerClient {
 		});
 	}
 
+	/**
+	 * Raise a handler event while holding the client monitor.
+	 * 
+	 * <p>
+	 * Queued events are queued immediately, so they keep the order of the
+	 * state transitions which raised them. In direct mode, the event is
+	 * returned instead, to be dispatched once the monitor has been released.
+	 * </p>
+	 * 
+	 * @param event
+	 *            The handler event.
+	 * @return The event to {@link #dispatch(Runnable) dispatch} after
+	 *         releasing the monitor, or null if already queued.
+	 */
+	private Runnable raise(Runnable event) {
+		if (!handlerExecutor.isDirect()) {
+			handlerExecutor.execute(event);
+			return null;
+		}
+		return event;
+	}
+
+	/**
+	 * Dispatch a handler event returned by {@link #raise(Runnable)}, after
+	 * releasing the client monitor.
+	 * 
+	 * @param event
+	 *            The handler event, or null.
+	 */
+	private void dispatch(Runnable event) {
+		if (event != null) {
+			handlerExecutor.execute(event);
+		}
+	}
+
 	/*
 	 * Player number rolling
 	 */
@@ -800,8 +1245,8 @@ public class PlayerClient {
 	private void rollPublish() throws IOException {
 		// Publish own roll
 		int roll = playerRolls.get(getPlayerID()).getRoll();
-		Map<String, Object> message = newMessage();
-		message.put(Constants.ROLL_NUMBER, roll);
+		RollMessage message = newMessage(new RollMessage());
+		message.setRoll(roll);
 		publish(Constants.ROLL, message);
 	}
 
@@ -824,7 +1269,7 @@ public class PlayerClient {
 			// Publish rolled
 			publishRolled();
 			// Call handler
-			handlerExecutor.submit(new Runnable() {
+			handlerExecutor.execute(new Runnable() {
 				@Override
 				public void run() {
 					handler.gameRolled(getPlayerNumber(), getObjectNumber());
@@ -843,22 +1288,33 @@ public class PlayerClient {
 		for (int i = 0; i < nbPlayers; ++i) {
 			playerNumbers.put(rolls[i].getPlayerID(), i + 1);
 		}
+		updateLocalPlayerNumber();
 	}
 
 	private void publishRolled() throws IOException {
-		Map<String, Object> message = newSpectatorMessage();
-		message.put(Constants.PLAYER_NUMBER, getPlayerNumber());
+		SpectatorMessage message = newSpectatorMessage(new SpectatorMessage());
 		publish(Constants.ROLLED, message);
 	}
 
 	private void replacePlayerNumbers(Map<String, Integer> numbers) {
 		clearPlayerNumbers();
 		playerNumbers.putAll(numbers);
+		updateLocalPlayerNumber();
 	}
 
 	private void clearPlayerNumbers() {
 		playerRolls.clear();
 		playerNumbers.clear();
+		localPlayerNumber = 0;
+	}
+
+	/**
+	 * Publish the player number of the local player, so it can be read
+	 * without holding the client monitor.
+	 */
+	private void updateLocalPlayerNumber() {
+		Integer playerNumber = playerNumbers.get(getPlayerID());
+		localPlayerNumber = (playerNumber == null) ? 0 : playerNumber;
 	}
 
 	/*
@@ -889,12 +1345,12 @@ public class PlayerClient {
 			throw new IllegalStateException("Cannot update position when not playing.");
 		}
 
-		Map<String, Object> message = newSpectatorMessage();
-		message.put(Constants.PLAYER_NUMBER, getPlayerNumber());
-		message.put(Constants.UPDATE_X, x);
-		message.put(Constants.UPDATE_Y, y);
-		message.put(Constants.UPDATE_ANGLE, angle);
-		message.put(Constants.PLAYER_FOUND_OBJECT, hasFoundObject());
+		// Reuse message, it is serialized before publish returns
+		UpdateMessage message = updateMessages.get();
+		message.reset();
+		newSpectatorMessage(message);
+		message.setPosition(x, y, angle);
+		message.setFoundObject(hasFoundObject());
 		publish(Constants.UPDATE, message);
 	}
 
@@ -904,7 +1360,7 @@ public class PlayerClient {
 	private void updateReceived(String playerID, final long x, final long y, final double angle) {
 		// Update received from partner
 		if (hasTeamPartner() && getTeamPartner().equals(playerID)) {
-			handlerExecutor.submit(new Runnable() {
+			handlerExecutor.executeLatest(playerID, null, new Runnable() {
 				@Override
 				public void run() {
 					handler.teamPosition(x, y, angle);
@@ -951,9 +1407,8 @@ public class PlayerClient {
 		seesawLock = 0;
 
 		// Publish unlock
-		Map<String, Object> message = newSpectatorMessage();
-		message.put(Constants.PLAYER_NUMBER, getPlayerNumber());
-		message.put(Constants.SEESAW_BARCODE, unlockedBarcode);
+		SeesawMessage message = newSpectatorMessage(new SeesawMessage());
+		message.setBarcode(unlockedBarcode);
 		publish(Constants.SEESAW_UNLOCK, message);
 	}
 
@@ -1005,9 +1460,8 @@ public class PlayerClient {
 		seesawLock = barcode;
 
 		// Publish lock
-		final Map<String, Object> message = newSpectatorMessage();
-		message.put(Constants.PLAYER_NUMBER, getPlayerNumber());
-		message.put(Constants.SEESAW_BARCODE, barcode);
+		SeesawMessage message = newSpectatorMessage(new SeesawMessage());
+		message.setBarcode(barcode);
 		publish(Constants.SEESAW_LOCK, message);
 	}
 
@@ -1062,15 +1516,15 @@ public class PlayerClient {
 		this.hasFoundObject = true;
 
 		// Publish
-		Map<String, Object> message = newMessage();
-		message.put(Constants.PLAYER_NUMBER, getPlayerNumber());
+		FoundMessage message = newMessage(new FoundMessage());
+		message.setPlayerNumber(getPlayerNumber());
 		publish(Constants.FOUND_OBJECT, message);
 	}
 
 	private void playerFoundObject(final String playerID) {
 		// Call handler
 		final int playerNumber = playerNumbers.get(playerID);
-		handlerExecutor.submit(new Runnable() {
+		handlerExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
 				handler.playerFoundObject(playerID, playerNumber);
@@ -1087,10 +1541,16 @@ public class PlayerClient {
 		heartbeatStop();
 
 		// Setup executor
-		heartbeatExecutor = Executors.newScheduledThreadPool(1, heartbeatFactory);
+		ScheduledExecutorService executor;
+		if (runtime != null) {
+			executor = runtime.getTimer();
+		} else {
+			heartbeatExecutor = Executors.newScheduledThreadPool(1, heartbeatFactory);
+			executor = heartbeatExecutor;
+		}
 
 		// Start beating
-		heartbeatTask = heartbeatExecutor.scheduleAtFixedRate(new HeartbeatTask(), 0, heartbeatFrequency,
+		heartbeatTask = executor.scheduleAtFixedRate(new HeartbeatTask(), 0, heartbeatFrequency,
 				TimeUnit.MILLISECONDS);
 	}
 
@@ -1115,7 +1575,7 @@ public class PlayerClient {
 		getLocalPlayer().setLastHeartbeat(timestamp);
 
 		// Publish
-		publish(Constants.HEARTBEAT, null);
+		publish(Constants.HEARTBEAT, newMessage(new HeartbeatMessage()));
 	}
 
 	private void heartbeatCheck() throws IOException {
@@ -1137,10 +1597,10 @@ public class PlayerClient {
 		playerDisconnected(player.getClientID(), player.getPlayerID(), DisconnectReason.TIMEOUT);
 
 		// Publish leave for player
-		Map<String, Object> message = newMessage();
-		message.put(Constants.PLAYER_ID, player.getPlayerID());
-		message.put(Constants.CLIENT_ID, player.getClientID());
-		message.put(Constants.DISCONNECT_REASON, DisconnectReason.TIMEOUT.name());
+		DisconnectMessage message = new DisconnectMessage();
+		message.setPlayerID(player.getPlayerID());
+		message.setClientID(player.getClientID());
+		message.setReason(DisconnectReason.TIMEOUT);
 		publish(Constants.DISCONNECT, message);
 	}
 
@@ -1162,7 +1622,7 @@ public class PlayerClient {
 					heartbeatCheck();
 				}
 			} catch (IOException e) {
-				// Bail out
+				// Publisher has failed for good, bail out
 				heartbeatStop();
 			}
 		}
@@ -1246,7 +1706,7 @@ public class PlayerClient {
 		setupTeam(teamNumber);
 
 		// Ping for partner
-		new TeamPingRequester(channel, requestProvider).request(requestLifetime);
+		new TeamPingRequester(replyConsumer).request(requestLifetime);
 	}
 
 	/**
@@ -1258,12 +1718,13 @@ public class PlayerClient {
 	private void teamPingReceived(final String playerID, BasicProperties props) throws IOException {
 		// Store team partner
 		this.teamPartner = playerID;
+		resetTileDictionary();
 
 		// Reply with a pong
 		reply(props, newMessage());
 
 		// Start communicating
-		handlerExecutor.submit(new Runnable() {
+		handlerExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
 				handler.teamConnected(playerID);
@@ -1279,9 +1740,10 @@ public class PlayerClient {
 	private void teamPongReceived(final String playerID) {
 		// Store team partner
 		this.teamPartner = playerID;
+		resetTileDictionary();
 
 		// Start communicating
-		handlerExecutor.submit(new Runnable() {
+		handlerExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
 				handler.teamConnected(playerID);
@@ -1289,6 +1751,15 @@ public class PlayerClient {
 		});
 	}
 
+	/**
+	 * Start a new tile dictionary session with the team partner.
+	 */
+	private void resetTileDictionary() {
+		synchronized (tileDictionary) {
+			tileDictionary.reset();
+		}
+	}
+
 	/**
 	 * Called when the ping expired.
 	 */
@@ -1313,16 +1784,24 @@ public class PlayerClient {
 			throw new IllegalStateException("Partner still unknown.");
 		}
 
-		// Build raw tiles list
-		List<List<Object>> rawTiles = new ArrayList<List<Object>>(tiles.size());
-		for (Tile tile : tiles) {
-			rawTiles.add(tile.write());
-		}
-
 		// Send tiles
-		Map<String, Object> message = newMessage();
-		message.put(Constants.TILES, rawTiles);
-		publish(toTeamTopic(Constants.TEAM_TILE), message);
+		TilesMessage message = newMessage(new TilesMessage());
+		message.setTiles(tiles);
+		synchronized (tileDictionary) {
+			// Publish in order of assigned token codes
+			message.setDictionary(tileDictionary);
+			int nbCodes = tileDictionary.size();
+			boolean isPublished = false;
+			try {
+				publish(toTeamTopic(Constants.TEAM_TILE), message);
+				isPublished = true;
+			} finally {
+				if (!isPublished) {
+					// Partner never receives the new codes
+					tileDictionary.truncate(nbCodes);
+				}
+			}
+		}
 	}
 
 	/**
@@ -1339,21 +1818,32 @@ public class PlayerClient {
 		sendTiles(Arrays.asList(tiles));
 	}
 
+	/**
+	 * Called when tiles have been received which cannot be decoded, since an
+	 * earlier message of the tile dictionary session was missed.
+	 * 
+	 * @param session
+	 *            The tile dictionary session of the partner.
+	 * @throws IOException
+	 */
+	private void teamTilesOutOfSync(int session) throws IOException {
+		if (session == tileResyncSession)
+			return;
+		// Ask partner for a new session, once per session
+		tileResyncSession = session;
+		publish(toTeamTopic(Constants.TEAM_TILE_RESYNC), newMessage());
+	}
+
 	/**
 	 * Called when tiles have been received.
 	 * 
 	 * @param message
 	 */
-	private void teamTilesReceived(Map<String, Object> message) {
-		@SuppressWarnings("unchecked")
-		List<List<Object>> rawTiles = (List<List<Object>>) message.get(Constants.TILES);
-		// Build tile objects
-		final List<Tile> tiles = new ArrayList<Tile>(rawTiles.size());
-		for (List<Object> rawTile : rawTiles) {
-			tiles.add(Tile.read(rawTile));
-		}
+	private void teamTilesReceived(TilesMessage message) {
+		// Hand off received tiles
+		final TileBatch tiles = message.takeTiles();
 		// Call handler
-		handlerExecutor.submit(new Runnable() {
+		handlerExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
 				handler.teamTilesReceived(tiles);
@@ -1399,8 +1889,8 @@ public class PlayerClient {
 		}
 
 		// Publish win
-		Map<String, Object> message = newMessage();
-		message.put(Constants.TEAM_NUMBER, getTeamNumber());
+		WinMessage message = newMessage(new WinMessage());
+		message.setTeamNumber(getTeamNumber());
 		publish(Constants.WIN, message);
 
 		// Stop the game
@@ -1409,7 +1899,7 @@ public class PlayerClient {
 
 	private void gameWon(final int teamNumber) throws IOException {
 		// Call handler
-		handlerExecutor.submit(new Runnable() {
+		handlerExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
 				handler.gameWon(teamNumber);
@@ -1428,17 +1918,68 @@ public class PlayerClient {
 		resetGame();
 
 		// Create channel
-		channel = connection.createChannel();
+		channel = openChannel();
 		// Declare exchange
 		channel.exchangeDeclare(getGameID(), "topic");
+		// Setup publisher
+		if (runtime != null) {
+			publisher = new Publisher(channel, runtime.getPublishExecutor());
+		} else {
+			publisher = new Publisher(channel, publisherFactory);
+		}
 
 		// Setup request provider
-		requestProvider = new RequestProvider();
+		if (runtime != null) {
+			requestProvider = new RequestProvider(runtime.getTimer());
+		} else {
+			requestProvider = new RequestProvider();
+		}
+		// Setup reply queue, shared by all requests
+		replyConsumer = ReplyConsumer.create(publisher, requestProvider, isDirectReplyTo());
+	}
+
+	private Channel openChannel() throws IOException {
+		if (runtime != null) {
+			return runtime.openChannel();
+		} else {
+			return connection.createChannel();
+		}
+	}
+
+	private void closeChannel(Channel channel) throws IOException {
+		if (runtime != null) {
+			runtime.closeChannel(channel);
+		} else {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Get a channel for a high volume consumer, which is either a dedicated
+	 * channel or the shared channel.
+	 */
+	private Channel openConsumerChannel() throws IOException {
+		if (isDedicatedChannels()) {
+			return openChannel();
+		} else {
+			return channel;
+		}
+	}
+
+	private void closeConsumerChannel(Consumer consumer) {
+		Channel consumerChannel = consumer.getChannel();
+		if (consumerChannel == channel)
+			return;
+		try {
+			closeChannel(consumerChannel);
+		} catch (IOException e) {
+		} catch (ShutdownSignalException e) {
+		}
 	}
 
 	private void setupJoin() throws IOException {
 		joinConsumer = new JoinLeaveConsumer(channel);
-		joinConsumer.bind(getGameID(), "*");
+		joinConsumer.bindRegistered(getGameID());
 	}
 
 	private void shutdownJoin() {
@@ -1449,25 +1990,27 @@ public class PlayerClient {
 	}
 
 	private void setupPublic() throws IOException {
-		publicConsumer = new PublicConsumer(channel);
-		publicConsumer.bind(getGameID(), "*");
+		publicConsumer = new PublicConsumer(openConsumerChannel());
+		publicConsumer.bindRegistered(getGameID());
 	}
 
 	private void shutdownPublic() throws IOException {
 		if (publicConsumer != null) {
 			publicConsumer.terminate();
+			closeConsumerChannel(publicConsumer);
 			publicConsumer = null;
 		}
 	}
 
 	private void setupTeam(int teamNumber) throws IOException {
-		teamConsumer = new TeamConsumer(channel);
-		teamConsumer.bind(getGameID(), toTeamTopic("*"));
+		teamConsumer = new TeamConsumer(openConsumerChannel());
+		teamConsumer.bindRegistered(getGameID());
 	}
 
 	private void shutdownTeam() throws IOException {
 		if (teamConsumer != null) {
 			teamConsumer.terminate();
+			closeConsumerChannel(teamConsumer);
 			teamConsumer = null;
 		}
 	}
@@ -1486,23 +2029,21 @@ public class PlayerClient {
 		}
 	}
 
-	private void readGameState(Map<String, Object> message) {
+	private void readGameState(VoteMessage message) {
 		// Game state (if valid)
-		String gameState = (String) message.get(Constants.GAME_STATE);
+		GameState gameState = message.getGameState();
 		if (gameState != null) {
-			setGameState(GameState.valueOf(gameState));
+			setGameState(gameState);
 		}
 
 		// Player numbers (if valid)
-		@SuppressWarnings("unchecked")
-		Map<String, Integer> playerNumbers = (Map<String, Integer>) message.get(Constants.PLAYER_NUMBERS);
+		Map<String, Integer> playerNumbers = message.getPlayerNumbers();
 		if (playerNumbers != null) {
 			replacePlayerNumbers(playerNumbers);
 		}
 
 		// Missing players (if valid)
-		@SuppressWarnings("unchecked")
-		Iterable<String> missingPlayers = (Iterable<String>) message.get(Constants.MISSING_PLAYERS);
+		Collection<String> missingPlayers = message.getMissingPlayers();
 		if (missingPlayers != null) {
 			for (String missingPlayer : missingPlayers) {
 				setMissingPlayer(missingPlayer);
@@ -1510,71 +2051,96 @@ public class PlayerClient {
 		}
 	}
 
-	private Map<String, Object> writeGameState() {
-		Map<String, Object> state = new HashMap<String, Object>();
+	private void writeGameState(VoteMessage state) {
 		// Game state
 		if (isJoined()) {
-			state.put(Constants.GAME_STATE, getGameState().name());
+			state.setGameState(getGameState());
 		}
 		// Player numbers
 		if (hasPlayerNumber()) {
-			state.put(Constants.PLAYER_NUMBERS, playerNumbers);
+			state.setPlayerNumbers(playerNumbers);
 		}
 		// Missing players
 		Collection<String> missingPlayers = getMissingPlayers();
 		if (!missingPlayers.isEmpty()) {
-			state.put(Constants.MISSING_PLAYERS, missingPlayers);
+			state.setMissingPlayers(missingPlayers);
 		}
-		return state;
 	}
 
 	/*
 	 * Helpers
 	 */
 
-	protected void publish(String routingKey, Map<String, Object> message, BasicProperties props) throws IOException {
-		channel.basicPublish(getGameID(), routingKey, props, serializeToJSON(message));
+	protected void publish(String routingKey, Message message, AMQP.BasicProperties.Builder props)
+			throws IOException {
+		byte[] body = serialize(message, props);
+		publisher.publish(getGameID(), routingKey, props.build(), body);
 	}
 
-	protected void publish(String routingKey, Map<String, Object> message) throws IOException {
-		publish(routingKey, message, defaultProps().build());
+	protected void publish(String routingKey, Message message) throws IOException {
+		publish(routingKey, message, defaultProps().priority(Topic.priorityOf(routingKey)));
 	}
 
-	protected void reply(BasicProperties requestProps, Map<String, Object> message) throws IOException {
-		BasicProperties props = defaultProps().correlationId(requestProps.getCorrelationId()).build();
-		channel.basicPublish("", requestProps.getReplyTo(), props, serializeToJSON(message));
+	protected void reply(BasicProperties requestProps, Message message) throws IOException {
+		AMQP.BasicProperties.Builder props = defaultProps().correlationId(requestProps.getCorrelationId());
+		byte[] body = serialize(message, props);
+		publisher.publish("", requestProps.getReplyTo(), props.build(), body);
 	}
 
 	private AMQP.BasicProperties.Builder defaultProps() {
-		return new AMQP.BasicProperties.Builder().timestamp(new Date()).contentType("text/plain").deliveryMode(1);
+		return new AMQP.BasicProperties.Builder().timestamp(new Date()).deliveryMode(1)
+				.priority(Constants.PRIORITY_CONTROL).headers(getSenderHeaders());
 	}
 
-	protected Map<String, Object> newMessage() {
-		Map<String, Object> message = new HashMap<String, Object>();
+	/**
+	 * Get the headers identifying the local player as sender.
+	 * 
+	 * <p>
+	 * This is called from publishing and delivery threads, so it only reads
+	 * the published local player number instead of the player numbers map.
+	 * </p>
+	 */
+	private Map<String, Object> getSenderHeaders() {
+		int playerNumber = localPlayerNumber;
+		Map<String, Object> headers = senderHeaders;
+		if (headers == null || SenderHeaders.getPlayerNumber(headers) != playerNumber) {
+			// Rebuild when player number changed
+			headers = SenderHeaders.create(getClientID(), getPlayerID(), playerNumber);
+			senderHeaders = headers;
+		}
+		return headers;
+	}
 
+	protected Message newMessage() {
+		return newMessage(new Message());
+	}
+
+	protected <M extends Message> M newMessage(M message) {
 		// Add player ID to message
-		message.put(Constants.PLAYER_ID, getPlayerID());
+		message.setPlayerID(getPlayerID());
 
 		return message;
 	}
 
-	protected Map<String, Object> newSpectatorMessage() {
-		Map<String, Object> message = newMessage();
+	protected <M extends SpectatorMessage> M newSpectatorMessage(M message) {
+		newMessage(message);
 
-		// Add player details to message
-		message.put(Constants.PLAYER_DETAILS, getLocalPlayerDetails().write());
+		// Add player details and number to message
+		message.setPlayerDetails(getLocalPlayerDetails());
+		message.setPlayerNumber(getPlayerNumber());
 
 		return message;
 	}
 
-	protected byte[] serializeToJSON(Map<String, Object> message) {
-		// Default message
-		if (message == null) {
-			message = newMessage();
-		}
+	/**
+	 * Serialize a message and set the matching content type and encoding.
+	 */
+	private byte[] serialize(Message message, AMQP.BasicProperties.Builder props) {
+		return Serializer.serialize(message, isBinaryEncoding(), getCompressionThreshold(), props);
+	}
 
-		// Serialize map as JSON object
-		return new JSONWriter().write(message).getBytes();
+	protected byte[] serializeToJSON(Message message) {
+		return Serializer.serializeToJSON(message);
 	}
 
 	/**
@@ -1584,15 +2150,15 @@ public class PlayerClient {
 
 		private final Callback<Void> callback;
 
-		public JoinRequester(Callback<Void> callback) throws IOException {
-			super(channel, requestProvider);
+		public JoinRequester(Callback<Void> callback) {
+			super(replyConsumer);
 			this.callback = callback;
 		}
 
 		public void request(int timeout) throws IOException {
 			// Publish join with own player info
-			Map<String, Object> message = createMessage();
-			request(getGameID(), Constants.JOIN, serializeToJSON(message), timeout);
+			JoinMessage message = createMessage();
+			request(getGameID(), Constants.JOIN, serializeToJSON(message), getSenderHeaders(), timeout);
 		}
 
 		@Override
@@ -1602,12 +2168,12 @@ public class PlayerClient {
 		}
 
 		@Override
-		protected void onAccepted(Map<String, Object> message) {
+		protected void onAccepted(VoteMessage message) {
 			// Accepted by peer
-			String clientID = (String) message.get(Constants.CLIENT_ID);
-			String playerID = (String) message.get(Constants.PLAYER_ID);
-			boolean isReady = (Boolean) message.get(Constants.IS_READY);
-			boolean isJoined = (Boolean) message.get(Constants.IS_JOINED);
+			String clientID = message.getClientID();
+			String playerID = message.getPlayerID();
+			boolean isReady = message.isReady();
+			boolean isJoined = message.isJoined();
 
 			// Store player
 			if (isJoined) {
@@ -1620,7 +2186,7 @@ public class PlayerClient {
 		}
 
 		@Override
-		protected void onRejected(Map<String, Object> message) {
+		protected void onRejected(VoteMessage message) {
 		}
 
 		@Override
@@ -1632,7 +2198,7 @@ public class PlayerClient {
 			}
 			try {
 				// Publish joined
-				publish("joined", createMessage());
+				publish(Constants.JOINED, createMessage());
 				// Handle join
 				joined();
 				// Report success
@@ -1661,10 +2227,10 @@ public class PlayerClient {
 			success();
 		}
 
-		private Map<String, Object> createMessage() {
+		private JoinMessage createMessage() {
 			PlayerState player = getLocalPlayer();
-			Map<String, Object> message = newMessage();
-			message.put(Constants.CLIENT_ID, player.getClientID());
+			JoinMessage message = newMessage(new JoinMessage());
+			message.setClientID(player.getClientID());
 			return message;
 		}
 
@@ -1677,33 +2243,52 @@ public class PlayerClient {
 
 		public JoinLeaveConsumer(Channel channel) throws IOException {
 			super(channel);
+
+			register(Constants.JOIN, new JoinMessage(), new MessageHandler<JoinMessage>() {
+				@Override
+				public void handleMessage(JoinMessage message, BasicProperties props) throws IOException {
+					// Player joining
+					if (!isLocal(message)) {
+						playerJoining(message.getClientID(), message.getPlayerID(), props);
+					}
+				}
+			});
+			register(Constants.JOINED, new JoinMessage(), new MessageHandler<JoinMessage>() {
+				@Override
+				public void handleMessage(JoinMessage message, BasicProperties props) throws IOException {
+					// Player joined
+					if (!isLocal(message)) {
+						playerJoined(message.getClientID(), message.getPlayerID());
+					}
+				}
+			});
+			register(Constants.DISCONNECT, new DisconnectMessage(), new MessageHandler<DisconnectMessage>() {
+				@Override
+				public void handleMessage(DisconnectMessage message, BasicProperties props) throws IOException {
+					// Player disconnected
+					if (!isLocal(message)) {
+						playerDisconnected(message.getClientID(), message.getPlayerID(), message.getReason());
+					}
+				}
+			});
+			register(Constants.ROLL, new RollMessage(), new MessageHandler<RollMessage>() {
+				@Override
+				public void handleMessage(RollMessage message, BasicProperties props) throws IOException {
+					// Player rolled their number
+					rollReceived(message.getPlayerID(), message.getRoll());
+				}
+			});
 		}
 
 		@Override
-		public void handleMessage(String topic, Map<String, Object> message, BasicProperties props) throws IOException {
-			// Read player info
-			String clientID = (String) message.get(Constants.CLIENT_ID);
-			String playerID = (String) message.get(Constants.PLAYER_ID);
-
-			// Ignore local messages
-			if (getClientID().equals(clientID))
-				return;
-
-			if (topic.equals(Constants.JOIN)) {
-				// Player joining
-				playerJoining(clientID, playerID, props);
-			} else if (topic.equals(Constants.JOINED)) {
-				// Player joined
-				playerJoined(clientID, playerID);
-			} else if (topic.equals(Constants.DISCONNECT)) {
-				// Player disconnected
-				DisconnectReason reason = DisconnectReason.valueOf((String) message.get(Constants.DISCONNECT_REASON));
-				playerDisconnected(clientID, playerID, reason);
-			} else if (topic.equals(Constants.ROLL)) {
-				// Player rolled their number
-				int roll = (Integer) message.get(Constants.ROLL_NUMBER);
-				rollReceived(playerID, roll);
-			}
+		protected boolean accept(String topic, BasicProperties props) {
+			// Drop local messages before decoding
+			return topic.equals(Constants.ROLL) || !getClientID().equals(SenderHeaders.getClientID(props));
+		}
+
+		private boolean isLocal(JoinMessage message) {
+			// Ignore local messages from clients without sender headers
+			return getClientID().equals(message.getClientID());
 		}
 
 	}
@@ -1715,45 +2300,56 @@ public class PlayerClient {
 
 		public PublicConsumer(Channel channel) throws IOException {
 			super(channel);
-		}
-
-		@Override
-		public void handleMessage(String topic, Map<String, Object> message, BasicProperties props) throws IOException {
-			// Player messages
-			final String playerID = (String) message.get(Constants.PLAYER_ID);
-			// Spectator messages
-			@SuppressWarnings("unchecked")
-			final PlayerDetails player = PlayerDetails
-					.read((Map<String, Object>) message.get(Constants.PLAYER_DETAILS));
-
-			if (topic.equals(Constants.READY)) {
-				// Player ready
-				boolean isReady = (Boolean) message.get(Constants.IS_READY);
-				playerReady(playerID, isReady);
-			} else if (topic.equals(Constants.START)) {
-				// Game started
-				started(false);
-			} else if (topic.equals(Constants.STOP)) {
-				// Game stopped
-				stopped(false);
-			} else if (topic.equals(Constants.FOUND_OBJECT)) {
-				// Player found their object
-				playerFoundObject(playerID);
-			} else if (topic.equals(Constants.HEARTBEAT)) {
-				// Heartbeat
-				heartbeatReceived(playerID);
-			} else if (topic.equals(Constants.UPDATE)) {
-				// Player updated their position
-				long x = ((Number) message.get(Constants.UPDATE_X)).longValue();
-				long y = ((Number) message.get(Constants.UPDATE_Y)).longValue();
-				double angle = ((Number) message.get(Constants.UPDATE_ANGLE)).doubleValue();
-				updateReceived(player.getPlayerID(), x, y, angle);
-			} else if (topic.equals(Constants.WIN)) {
-				// Team won
-				int teamNumber = ((Number) message.get(Constants.TEAM_NUMBER)).intValue();
-				gameWon(teamNumber);
-			}
 
+			register(Constants.READY, new ReadyMessage(), new MessageHandler<ReadyMessage>() {
+				@Override
+				public void handleMessage(ReadyMessage message, BasicProperties props) throws IOException {
+					// Player ready
+					playerReady(message.getPlayerID(), message.isReady());
+				}
+			});
+			register(Constants.START, new Message(), new MessageHandler<Message>() {
+				@Override
+				public void handleMessage(Message message, BasicProperties props) throws IOException {
+					// Game started
+					started(false);
+				}
+			});
+			register(Constants.STOP, new Message(), new MessageHandler<Message>() {
+				@Override
+				public void handleMessage(Message message, BasicProperties props) throws IOException {
+					// Game stopped
+					stopped(false);
+				}
+			});
+			register(Constants.FOUND_OBJECT, new FoundMessage(), new MessageHandler<FoundMessage>() {
+				@Override
+				public void handleMessage(FoundMessage message, BasicProperties props) throws IOException {
+					// Player found their object
+					playerFoundObject(message.getPlayerID());
+				}
+			});
+			register(Constants.HEARTBEAT, new HeartbeatMessage(), new MessageHandler<HeartbeatMessage>() {
+				@Override
+				public void handleMessage(HeartbeatMessage message, BasicProperties props) throws IOException {
+					// Heartbeat
+					heartbeatReceived(message.getPlayerID());
+				}
+			});
+			register(Constants.UPDATE, new UpdateMessage(false), new MessageHandler<UpdateMessage>() {
+				@Override
+				public void handleMessage(UpdateMessage message, BasicProperties props) throws IOException {
+					// Player updated their position
+					updateReceived(message.getPlayerID(), message.getX(), message.getY(), message.getAngle());
+				}
+			});
+			register(Constants.WIN, new WinMessage(), new MessageHandler<WinMessage>() {
+				@Override
+				public void handleMessage(WinMessage message, BasicProperties props) throws IOException {
+					// Team won
+					gameWon(message.getTeamNumber());
+				}
+			});
 		}
 
 	}
@@ -1765,45 +2361,72 @@ public class PlayerClient {
 
 		public TeamConsumer(Channel channel) throws IOException {
 			super(channel);
+
+			register(toTeamTopic(Constants.TEAM_PING), new Message(), new MessageHandler<Message>() {
+				@Override
+				public void handleMessage(Message message, BasicProperties props) throws IOException {
+					// Partner connected
+					if (!isLocal(message)) {
+						teamPingReceived(message.getPlayerID(), props);
+					}
+				}
+			});
+			register(toTeamTopic(Constants.TEAM_TILE), new TilesMessage(), new MessageHandler<TilesMessage>() {
+				@Override
+				public void handleMessage(TilesMessage message, BasicProperties props) throws IOException {
+					// Tiles received
+					if (isLocal(message)) {
+						return;
+					}
+					if (message.isOutOfSync()) {
+						// Drop tiles with unknown tokens
+						teamTilesOutOfSync(message.getDictionary().getSession());
+					} else {
+						teamTilesReceived(message);
+					}
+				}
+			});
+			register(toTeamTopic(Constants.TEAM_TILE_RESYNC), new Message(), new MessageHandler<Message>() {
+				@Override
+				public void handleMessage(Message message, BasicProperties props) throws IOException {
+					// Partner missed tiles
+					if (!isLocal(message)) {
+						resetTileDictionary();
+					}
+				}
+			});
 		}
 
 		@Override
-		public void handleMessage(String topic, Map<String, Object> message, BasicProperties props) throws IOException {
-			String playerID = (String) message.get(Constants.PLAYER_ID);
-			topic = fromTeamTopic(topic);
-
-			// Ignore local messages
-			if (getPlayerID().equals(playerID))
-				return;
-
-			if (topic.equals(Constants.TEAM_PING)) {
-				// Partner connected
-				teamPingReceived(playerID, props);
-			} else if (topic.equals(Constants.TEAM_TILE)) {
-				// Tiles received
-				teamTilesReceived(message);
-			}
+		protected boolean accept(String topic, BasicProperties props) {
+			// Drop local messages before decoding
+			return !getPlayerID().equals(SenderHeaders.getPlayerID(props));
+		}
 
+		private boolean isLocal(Message message) {
+			// Ignore local messages from clients without sender headers
+			return getPlayerID().equals(message.getPlayerID());
 		}
 
 	}
 
-	private class TeamPingRequester extends Requester {
+	private class TeamPingRequester extends Requester<Message> {
 
-		public TeamPingRequester(Channel channel, RequestProvider provider) throws IOException {
-			super(channel, provider);
+		public TeamPingRequester(ReplyConsumer replies) {
+			super(replies, new Message());
 		}
 
 		public void request(int timeout) throws IOException {
 			// Publish ping
-			Map<String, Object> message = newMessage();
-			request(getGameID(), toTeamTopic(Constants.TEAM_PING), serializeToJSON(message), timeout);
+			Message message = newMessage();
+			request(getGameID(), toTeamTopic(Constants.TEAM_PING), serializeToJSON(message), getSenderHeaders(),
+					timeout);
 		}
 
 		@Override
-		protected void handleResponse(Map<String, Object> message, BasicProperties props) {
+		protected void handleResponse(Message message, BasicProperties props) {
 			// Partner responded
-			String playerID = (String) message.get(Constants.PLAYER_ID);
+			String playerID = message.getPlayerID();
 			teamPongReceived(playerID);
 		}
 
@@ -1,7 +1,5 @@
 package peno.htttp;
 
-import java.util.List;
-
 /**
  * A handler for player events.
  */
@@ -49,8 +47,8 @@ public interface PlayerHandler extends GameHandler {
 	 * Invoked when maze tiles have been received from the team partner.
 	 * 
 	 * @param tiles
-	 *            The list of received tiles.
+	 *            The batch of received tiles.
 	 */
-	public void teamTilesReceived(List<Tile> tiles);
+	public void teamTilesReceived(TileBatch tiles);
 
 }
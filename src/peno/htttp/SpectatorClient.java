@@ -1,13 +1,23 @@
 package peno.htttp;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayDeque;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import peno.htttp.impl.Consumer;
+import peno.htttp.impl.DisconnectMessage;
+import peno.htttp.impl.FoundMessage;
+import peno.htttp.impl.JoinMessage;
+import peno.htttp.impl.Message;
+import peno.htttp.impl.MessageHandler;
 import peno.htttp.impl.NamedThreadFactory;
+import peno.htttp.impl.ReadyMessage;
+import peno.htttp.impl.SeesawMessage;
+import peno.htttp.impl.SpectatorMessage;
+import peno.htttp.impl.StripedExecutor;
+import peno.htttp.impl.UpdateMessage;
+import peno.htttp.impl.WinMessage;
 
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
@@ -23,12 +33,21 @@ public class SpectatorClient {
 	 * Communication
 	 */
 	private final Connection connection;
+	private final ClientRuntime runtime;
 	private Channel channel;
 	private final SpectatorHandler handler;
 	private Consumer consumer;
-	private final ExecutorService handlerExecutor;
+	private final StripedExecutor handlerExecutor;
+	private volatile int maxPendingEvents;
+	private volatile boolean conflatingUpdates = false;
 	private static final ThreadFactory handlerFactory = new NamedThreadFactory("HTTTP-SpectatorHandler-%d");
 
+	/*
+	 * Batching
+	 */
+	private final UpdateBatcher[] batchers;
+	private final AtomicLong nbBatchCoalesced = new AtomicLong(0);
+
 	/*
 	 * Identifiers
 	 */
@@ -37,20 +56,108 @@ public class SpectatorClient {
 	/**
 	 * Create a spectator client.
 	 * 
+	 * <p>
+	 * Events of a single player are delivered to the handler in order, but
+	 * events of different players may be handled concurrently on up to the
+	 * given number of threads. Game-wide events, such as the start, stop and
+	 * end of the game, are delivered after all earlier events and before all
+	 * later events of every player. Position updates are delivered once no
+	 * other events are pending.
+	 * </p>
+	 * 
+	 * <p>
+	 * If the handler is a {@link BatchSpectatorHandler}, player updates are
+	 * delivered in batches.
+	 * </p>
+	 * 
 	 * @param connection
 	 *            The AMQP connection for communication.
 	 * @param handler
 	 *            The event handler which listens to this spectator.
 	 * @param gameID
 	 *            The game identifier.
+	 * @param nbHandlerThreads
+	 *            The number of threads for handling events. Use a single
+	 *            thread to receive all events in order.
 	 * @throws IOException
 	 */
-	public SpectatorClient(Connection connection, SpectatorHandler handler, String gameID) throws IOException {
+	public SpectatorClient(Connection connection, SpectatorHandler handler, String gameID, int nbHandlerThreads)
+			throws IOException {
+		this(connection, null, handler, gameID, nbHandlerThreads);
+	}
+
+	/**
+	 * Create a spectator client which shares the resources of a client
+	 * runtime.
+	 * 
+	 * <p>
+	 * Events are handled on the shared handler threads of the runtime, with
+	 * the same ordering guarantees as a spectator client with as many handler
+	 * threads.
+	 * </p>
+	 * 
+	 * @param runtime
+	 *            The client runtime.
+	 * @param handler
+	 *            The event handler which listens to this spectator.
+	 * @param gameID
+	 *            The game identifier.
+	 * @throws IOException
+	 * @see ClientRuntime
+	 * @see #SpectatorClient(Connection, SpectatorHandler, String, int)
+	 */
+	public SpectatorClient(ClientRuntime runtime, SpectatorHandler handler, String gameID) throws IOException {
+		this(runtime.getConnection(), runtime, handler, gameID, Math.min(PlayerClient.nbPlayers,
+				runtime.getNbHandlerThreads()));
+	}
+
+	private SpectatorClient(Connection connection, ClientRuntime runtime, SpectatorHandler handler, String gameID,
+			int nbHandlerThreads) throws IOException {
 		this.connection = connection;
+		this.runtime = runtime;
 		this.handler = handler;
 		this.gameID = gameID;
 
-		this.handlerExecutor = Executors.newCachedThreadPool(handlerFactory);
+		if (runtime != null) {
+			this.handlerExecutor = new StripedExecutor(nbHandlerThreads, runtime.getHandlerExecutor());
+		} else {
+			this.handlerExecutor = new StripedExecutor(nbHandlerThreads, handlerFactory);
+		}
+		setMaxPendingEvents(PlayerClient.defaultMaxPendingEvents);
+
+		if (handler instanceof BatchSpectatorHandler) {
+			this.batchers = new UpdateBatcher[nbHandlerThreads];
+			for (int i = 0; i < nbHandlerThreads; i++) {
+				batchers[i] = new UpdateBatcher();
+			}
+		} else {
+			this.batchers = null;
+		}
+	}
+
+	/**
+	 * Create a spectator client.
+	 * 
+	 * <p>
+	 * Events are handled on one thread per player, up to the number of
+	 * available processors.
+	 * </p>
+	 * 
+	 * @param connection
+	 *            The AMQP connection for communication.
+	 * @param handler
+	 *            The event handler which listens to this spectator.
+	 * @param gameID
+	 *            The game identifier.
+	 * @throws IOException
+	 * @see #SpectatorClient(Connection, SpectatorHandler, String, int)
+	 */
+	public SpectatorClient(Connection connection, SpectatorHandler handler, String gameID) throws IOException {
+		this(connection, handler, gameID, defaultHandlerThreads());
+	}
+
+	private static int defaultHandlerThreads() {
+		return Math.min(PlayerClient.nbPlayers, Runtime.getRuntime().availableProcessors());
 	}
 
 	/**
@@ -60,6 +167,95 @@ public class SpectatorClient {
 		return gameID;
 	}
 
+	/**
+	 * Get the number of handler events which are queued but not yet handled.
+	 * 
+	 * <p>
+	 * A growing number of pending events indicates that the handler cannot
+	 * keep up.
+	 * </p>
+	 */
+	public int getPendingEvents() {
+		return handlerExecutor.getQueueDepth();
+	}
+
+	/**
+	 * Get the maximum number of pending handler events, or zero if unbounded.
+	 */
+	public int getMaxPendingEvents() {
+		return maxPendingEvents;
+	}
+
+	/**
+	 * Set the maximum number of pending handler events.
+	 * 
+	 * <p>
+	 * When the handler cannot keep up and this limit is reached, only the
+	 * newest position update of each player is kept and new position updates
+	 * are dropped. Other events are never dropped, but are queued beyond the
+	 * limit and counted as {@link #getOverflowedEvents() overflowed}. Receiving
+	 * messages never blocks, as the receiving thread may be shared with other
+	 * clients on the same connection.
+	 * </p>
+	 * 
+	 * @param maxPendingEvents
+	 *            The maximum number of pending events, or zero for no limit.
+	 */
+	public void setMaxPendingEvents(int maxPendingEvents) {
+		handlerExecutor.setCapacity(maxPendingEvents);
+		this.maxPendingEvents = maxPendingEvents;
+	}
+
+	/**
+	 * Get the number of position updates which were replaced by a newer update
+	 * before they could be handled.
+	 */
+	public long getCoalescedEvents() {
+		return handlerExecutor.getCoalescedCount() + nbBatchCoalesced.get();
+	}
+
+	/**
+	 * Get the number of position updates which were dropped because too many
+	 * events were pending.
+	 */
+	public long getDroppedEvents() {
+		return handlerExecutor.getDroppedCount();
+	}
+
+	/**
+	 * Get the number of events which were queued beyond the maximum number of
+	 * pending events, because the handler did not keep up.
+	 */
+	public long getOverflowedEvents() {
+		return handlerExecutor.getOverflowCount();
+	}
+
+	/**
+	 * Check whether pending player updates are merged into the newest one.
+	 */
+	public boolean isConflatingUpdates() {
+		return conflatingUpdates;
+	}
+
+	/**
+	 * Set whether pending player updates are merged into the newest one.
+	 * 
+	 * <p>
+	 * When enabled, a new update replaces a pending update of the same player
+	 * which has not yet been handled, so the handler only receives the most
+	 * recent state of each player. Updates with a different found object state
+	 * are never merged, so such transitions are always delivered. When
+	 * disabled, every update is delivered unless too many events are pending.
+	 * </p>
+	 * 
+	 * @param conflatingUpdates
+	 *            True to merge pending updates.
+	 */
+	public void setConflatingUpdates(boolean conflatingUpdates) {
+		handlerExecutor.setConflating(conflatingUpdates);
+		this.conflatingUpdates = conflatingUpdates;
+	}
+
 	/**
 	 * Start spectating.
 	 * 
@@ -67,13 +263,17 @@ public class SpectatorClient {
 	 */
 	public void start() throws IOException {
 		// Create channel
-		channel = connection.createChannel();
+		if (runtime != null) {
+			channel = runtime.openChannel();
+		} else {
+			channel = connection.createChannel();
+		}
 		// Declare exchange
 		channel.exchangeDeclare(getGameID(), "topic");
 
 		// Setup consumer
 		consumer = new SpectatorConsumer(channel);
-		consumer.bind(getGameID(), "*");
+		consumer.bindRegistered(getGameID());
 	}
 
 	/**
@@ -88,7 +288,11 @@ public class SpectatorClient {
 
 		// Shut down channel
 		try {
-			channel.close();
+			if (runtime != null) {
+				runtime.closeChannel(channel);
+			} else {
+				channel.close();
+			}
 		} catch (IOException e) {
 		} catch (ShutdownSignalException e) {
 		} finally {
@@ -96,6 +300,104 @@ public class SpectatorClient {
 		}
 	}
 
+	/**
+	 * Add a player update to the batch of its stripe.
+	 */
+	private void addUpdate(UpdateMessage message) {
+		String playerID = message.getPlayerID();
+		UpdateBatcher batcher = batchers[handlerExecutor.getStripe(playerID)];
+		BatchTask task = batcher.add(message.getPlayerDetails(), message.getPlayerNumber(), message.getX(),
+				message.getY(), message.getAngle(), message.hasFoundObject());
+		if (task != null) {
+			handlerExecutor.executeTelemetry(playerID, task);
+		}
+	}
+
+	/**
+	 * Collects the player updates of a single stripe into batches.
+	 * 
+	 * <p>
+	 * Updates are added to the current batch until it is being delivered, after
+	 * which a new batch is started. Delivered batches are reused.
+	 * </p>
+	 */
+	private class UpdateBatcher {
+
+		private final ArrayDeque<BatchTask> free = new ArrayDeque<BatchTask>();
+		private BatchTask current;
+
+		/**
+		 * Add an update to the current batch.
+		 * 
+		 * @return The task for a new batch which needs to be scheduled, or
+		 *         null if the current batch is already scheduled.
+		 */
+		public synchronized BatchTask add(PlayerDetails player, int playerNumber, long x, long y, double angle,
+				boolean foundObject) {
+			BatchTask task = current;
+			if (task == null) {
+				task = free.isEmpty() ? new BatchTask(this) : free.pop();
+				current = task;
+				task.batch.add(player, playerNumber, x, y, angle, foundObject);
+				return task;
+			}
+
+			UpdateBatch batch = task.batch;
+			if (isConflatingUpdates() || isFull(batch)) {
+				// Merge with previous update of this player
+				int index = batch.lastIndexOf(player.getPlayerID());
+				if (index >= 0 && batch.hasFoundObject(index) == foundObject) {
+					batch.set(index, player, playerNumber, x, y, angle, foundObject);
+					nbBatchCoalesced.incrementAndGet();
+					return null;
+				}
+			}
+			batch.add(player, playerNumber, x, y, angle, foundObject);
+			return null;
+		}
+
+		private synchronized void detach(BatchTask task) {
+			if (current == task) {
+				current = null;
+			}
+		}
+
+		private synchronized void release(BatchTask task) {
+			task.batch.clear();
+			free.push(task);
+		}
+
+		private boolean isFull(UpdateBatch batch) {
+			int maxPendingEvents = getMaxPendingEvents();
+			return maxPendingEvents > 0 && batch.size() * batchers.length >= maxPendingEvents;
+		}
+
+	}
+
+	/**
+	 * Delivers a batch of player updates.
+	 */
+	private class BatchTask implements Runnable {
+
+		private final UpdateBatcher batcher;
+		private final UpdateBatch batch = new UpdateBatch();
+
+		public BatchTask(UpdateBatcher batcher) {
+			this.batcher = batcher;
+		}
+
+		@Override
+		public void run() {
+			batcher.detach(this);
+			try {
+				((BatchSpectatorHandler) handler).playerUpdates(batch);
+			} finally {
+				batcher.release(this);
+			}
+		}
+
+	}
+
 	/**
 	 * Handles spectator broadcasts.
 	 */
@@ -103,130 +405,178 @@ public class SpectatorClient {
 
 		public SpectatorConsumer(Channel channel) throws IOException {
 			super(channel);
-		}
 
-		@Override
-		public void handleMessage(String topic, Map<String, Object> message, BasicProperties props) throws IOException {
-			// Player messages
-			final String playerID = (String) message.get(Constants.PLAYER_ID);
-			// Spectator messages
-			@SuppressWarnings("unchecked")
-			final PlayerDetails player = PlayerDetails
-					.read((Map<String, Object>) message.get(Constants.PLAYER_DETAILS));
-
-			if (topic.equals(Constants.START)) {
-				// Game started
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.gameStarted();
-					}
-				});
-			} else if (topic.equals(Constants.STOP)) {
-				// Game stopped
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.gameStopped();
-					}
-				});
-			} else if (topic.equals(Constants.JOIN)) {
-				// Player joining
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.playerJoining(playerID);
-					}
-				});
-			} else if (topic.equals(Constants.JOINED)) {
-				// Player joined
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.playerJoined(playerID);
-					}
-				});
-			} else if (topic.equals(Constants.DISCONNECT)) {
-				// Player disconnected
-				final DisconnectReason reason = DisconnectReason.valueOf((String) message
-						.get(Constants.DISCONNECT_REASON));
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.playerDisconnected(playerID, reason);
-					}
-				});
-			} else if (topic.equals(Constants.READY)) {
-				// Player ready
-				final boolean isReady = (Boolean) message.get(Constants.IS_READY);
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.playerReady(playerID, isReady);
+			register(Constants.START, new Message(), new MessageHandler<Message>() {
+				@Override
+				public void handleMessage(Message message, BasicProperties props) {
+					// Game started
+					handlerExecutor.executeFenced(new Runnable() {
+						@Override
+						public void run() {
+							handler.gameStarted();
+						}
+					});
+				}
+			});
+			register(Constants.STOP, new Message(), new MessageHandler<Message>() {
+				@Override
+				public void handleMessage(Message message, BasicProperties props) {
+					// Game stopped
+					handlerExecutor.executeFenced(new Runnable() {
+						@Override
+						public void run() {
+							handler.gameStopped();
+						}
+					});
+				}
+			});
+			register(Constants.JOIN, new JoinMessage(), new MessageHandler<JoinMessage>() {
+				@Override
+				public void handleMessage(JoinMessage message, BasicProperties props) {
+					// Player joining
+					final String playerID = message.getPlayerID();
+					handlerExecutor.execute(playerID, new Runnable() {
+						@Override
+						public void run() {
+							handler.playerJoining(playerID);
+						}
+					});
+				}
+			});
+			register(Constants.JOINED, new JoinMessage(), new MessageHandler<JoinMessage>() {
+				@Override
+				public void handleMessage(JoinMessage message, BasicProperties props) {
+					// Player joined
+					final String playerID = message.getPlayerID();
+					handlerExecutor.execute(playerID, new Runnable() {
+						@Override
+						public void run() {
+							handler.playerJoined(playerID);
+						}
+					});
+				}
+			});
+			register(Constants.DISCONNECT, new DisconnectMessage(), new MessageHandler<DisconnectMessage>() {
+				@Override
+				public void handleMessage(DisconnectMessage message, BasicProperties props) {
+					// Player disconnected
+					final String playerID = message.getPlayerID();
+					final DisconnectReason reason = message.getReason();
+					handlerExecutor.execute(playerID, new Runnable() {
+						@Override
+						public void run() {
+							handler.playerDisconnected(playerID, reason);
+						}
+					});
+				}
+			});
+			register(Constants.READY, new ReadyMessage(), new MessageHandler<ReadyMessage>() {
+				@Override
+				public void handleMessage(ReadyMessage message, BasicProperties props) {
+					// Player ready
+					final String playerID = message.getPlayerID();
+					final boolean isReady = message.isReady();
+					handlerExecutor.execute(playerID, new Runnable() {
+						@Override
+						public void run() {
+							handler.playerReady(playerID, isReady);
+						}
+					});
+				}
+			});
+			register(Constants.ROLLED, new SpectatorMessage(), new MessageHandler<SpectatorMessage>() {
+				@Override
+				public void handleMessage(SpectatorMessage message, BasicProperties props) {
+					// Player rolled their number
+					final PlayerDetails player = message.getPlayerDetails();
+					final int playerNumber = message.getPlayerNumber();
+					handlerExecutor.execute(message.getPlayerID(), new Runnable() {
+						@Override
+						public void run() {
+							handler.playerRolled(player, playerNumber);
+						}
+					});
+				}
+			});
+			register(Constants.UPDATE, new UpdateMessage(), new MessageHandler<UpdateMessage>() {
+				@Override
+				public void handleMessage(UpdateMessage message, BasicProperties props) {
+					// Player updated their state
+					if (batchers != null) {
+						addUpdate(message);
+						return;
 					}
-				});
-			} else if (topic.equals(Constants.ROLLED)) {
-				// Player rolled their number
-				final int playerNumber = ((Number) message.get(Constants.PLAYER_NUMBER)).intValue();
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.playerRolled(player, playerNumber);
-					}
-				});
-			} else if (topic.equals(Constants.UPDATE)) {
-				// Player updated their state
-				final int playerNumber = ((Number) message.get(Constants.PLAYER_NUMBER)).intValue();
-				final long x = ((Number) message.get(Constants.UPDATE_X)).longValue();
-				final long y = ((Number) message.get(Constants.UPDATE_Y)).longValue();
-				final double angle = ((Number) message.get(Constants.UPDATE_ANGLE)).doubleValue();
-				final boolean foundObject = (Boolean) message.get(Constants.PLAYER_FOUND_OBJECT);
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.playerUpdate(player, playerNumber, x, y, angle, foundObject);
-					}
-				});
-			} else if (topic.equals(Constants.FOUND_OBJECT)) {
-				// Player found their object
-				final int playerNumber = ((Number) message.get(Constants.PLAYER_NUMBER)).intValue();
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.playerFoundObject(playerID, playerNumber);
-					}
-				});
-			} else if (topic.equals(Constants.WIN)) {
-				// Team has won
-				final int teamNumber = ((Number) message.get(Constants.TEAM_NUMBER)).intValue();
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.gameWon(teamNumber);
-					}
-				});
-			} else if (topic.equals(Constants.SEESAW_LOCK)) {
-				// Player has locked seesaw
-				final int playerNumber = ((Number) message.get(Constants.PLAYER_NUMBER)).intValue();
-				final int barcode = ((Number) message.get(Constants.SEESAW_BARCODE)).intValue();
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.lockedSeesaw(player.getPlayerID(), playerNumber, barcode);
-					}
-				});
-			} else if (topic.equals(Constants.SEESAW_UNLOCK)) {
-				// Player has unlocked seesaw
-				final int playerNumber = ((Number) message.get(Constants.PLAYER_NUMBER)).intValue();
-				final int barcode = ((Number) message.get(Constants.SEESAW_BARCODE)).intValue();
-				handlerExecutor.submit(new Runnable() {
-					@Override
-					public void run() {
-						handler.unlockedSeesaw(player.getPlayerID(), playerNumber, barcode);
-					}
-				});
-			}
-
+					final PlayerDetails player = message.getPlayerDetails();
+					final int playerNumber = message.getPlayerNumber();
+					final long x = message.getX();
+					final long y = message.getY();
+					final double angle = message.getAngle();
+					final boolean foundObject = message.hasFoundObject();
+					handlerExecutor.executeLatest(message.getPlayerID(), foundObject, new Runnable() {
+						@Override
+						public void run() {
+							handler.playerUpdate(player, playerNumber, x, y, angle, foundObject);
+						}
+					});
+				}
+			});
+			register(Constants.FOUND_OBJECT, new FoundMessage(), new MessageHandler<FoundMessage>() {
+				@Override
+				public void handleMessage(FoundMessage message, BasicProperties props) {
+					// Player found their object
+					final String playerID = message.getPlayerID();
+					final int playerNumber = message.getPlayerNumber();
+					handlerExecutor.execute(playerID, new Runnable() {
+						@Override
+						public void run() {
+							handler.playerFoundObject(playerID, playerNumber);
+						}
+					});
+				}
+			});
+			register(Constants.WIN, new WinMessage(), new MessageHandler<WinMessage>() {
+				@Override
+				public void handleMessage(WinMessage message, BasicProperties props) {
+					// Team has won
+					final int teamNumber = message.getTeamNumber();
+					handlerExecutor.executeFenced(new Runnable() {
+						@Override
+						public void run() {
+							handler.gameWon(teamNumber);
+						}
+					});
+				}
+			});
+			register(Constants.SEESAW_LOCK, new SeesawMessage(false), new MessageHandler<SeesawMessage>() {
+				@Override
+				public void handleMessage(SeesawMessage message, BasicProperties props) {
+					// Player has locked seesaw
+					final String playerID = message.getPlayerID();
+					final int playerNumber = message.getPlayerNumber();
+					final int barcode = message.getBarcode();
+					handlerExecutor.execute(playerID, new Runnable() {
+						@Override
+						public void run() {
+							handler.lockedSeesaw(playerID, playerNumber, barcode);
+						}
+					});
+				}
+			});
+			register(Constants.SEESAW_UNLOCK, new SeesawMessage(false), new MessageHandler<SeesawMessage>() {
+				@Override
+				public void handleMessage(SeesawMessage message, BasicProperties props) {
+					// Player has unlocked seesaw
+					final String playerID = message.getPlayerID();
+					final int playerNumber = message.getPlayerNumber();
+					final int barcode = message.getBarcode();
+					handlerExecutor.execute(playerID, new Runnable() {
+						@Override
+						public void run() {
+							handler.unlockedSeesaw(playerID, playerNumber, barcode);
+						}
+					});
+				}
+			});
 		}
 
 	}
@@ -2,6 +2,26 @@ package peno.htttp;
 
 /**
  * A handler for spectator events.
+ * 
+ * <p>
+ * Events of the same player are delivered in order, but events of different
+ * players may be delivered concurrently. Game-wide events are never delivered
+ * concurrently with any other event.
+ * </p>
+ * 
+ * <p>
+ * Position updates are delivered in order, but only once no other events are
+ * pending. Other events, such as the end of the game, are therefore never held
+ * up by a flood of position updates, and may be delivered before updates which
+ * were received earlier.
+ * </p>
+ * 
+ * <p>
+ * When the handler falls behind, or when the client is conflating updates,
+ * pending updates of a player are replaced by newer ones, so only the latest
+ * position is delivered. Changes in whether the player has found their object
+ * are always delivered.
+ * </p>
  */
 public interface SpectatorHandler extends GameHandler {
 
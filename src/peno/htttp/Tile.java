@@ -1,8 +1,5 @@
 package peno.htttp;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * A maze tile shared between team partners.
  * 
@@ -46,19 +43,4 @@ public class Tile {
 		return token;
 	}
 
-	static Tile read(List<Object> in) {
-		long x = ((Number) in.get(0)).longValue();
-		long y = ((Number) in.get(1)).longValue();
-		String token = (String) in.get(2);
-		return new Tile(x, y, token);
-	}
-
-	List<Object> write() {
-		List<Object> out = new ArrayList<Object>();
-		out.add(getX());
-		out.add(getY());
-		out.add(getToken());
-		return out;
-	}
-
 }
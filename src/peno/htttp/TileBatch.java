@@ -0,0 +1,93 @@
+package peno.htttp;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A batch of maze tiles, backed by primitive arrays.
+ * 
+ * <p>
+ * The coordinates and tokens of the tiles can be accessed directly by index,
+ * without creating any {@link Tile} objects. Tile objects are only created
+ * when accessed through the {@link java.util.List} interface.
+ * </p>
+ * 
+ * <p>
+ * A tile batch is unmodifiable.
+ * </p>
+ */
+public class TileBatch extends AbstractList<Tile> implements RandomAccess {
+
+	private final int size;
+	private final long[] x;
+	private final long[] y;
+	private final String[] tokens;
+
+	/**
+	 * Create a tile batch backed by the given arrays.
+	 * 
+	 * <p>
+	 * The arrays are not copied and must not be modified afterwards.
+	 * </p>
+	 * 
+	 * @param size
+	 *            The number of tiles.
+	 * @param x
+	 *            The X-coordinates of the tiles.
+	 * @param y
+	 *            The Y-coordinates of the tiles.
+	 * @param tokens
+	 *            The tile tokens of the tiles.
+	 */
+	public TileBatch(int size, long[] x, long[] y, String[] tokens) {
+		if (size > x.length || size > y.length || size > tokens.length) {
+			throw new IllegalArgumentException("Arrays too small for " + size + " tiles.");
+		}
+		this.size = size;
+		this.x = x;
+		this.y = y;
+		this.tokens = tokens;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Tile get(int index) {
+		checkIndex(index);
+		return new Tile(x[index], y[index], tokens[index]);
+	}
+
+	/**
+	 * Get the X-coordinate of the tile at the given index.
+	 */
+	public long getX(int index) {
+		checkIndex(index);
+		return x[index];
+	}
+
+	/**
+	 * Get the Y-coordinate of the tile at the given index.
+	 */
+	public long getY(int index) {
+		checkIndex(index);
+		return y[index];
+	}
+
+	/**
+	 * Get the tile token of the tile at the given index.
+	 */
+	public String getToken(int index) {
+		checkIndex(index);
+		return tokens[index];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+}
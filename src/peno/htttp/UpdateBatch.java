@@ -0,0 +1,158 @@
+package peno.htttp;
+
+import java.util.Arrays;
+
+/**
+ * A batch of player updates, backed by primitive arrays.
+ * 
+ * <p>
+ * The updates are stored in the order in which they were received, and can be
+ * accessed directly by index. An update batch is only valid during the call to
+ * {@link BatchSpectatorHandler#playerUpdates(UpdateBatch)} it was passed to,
+ * as it is reused afterwards.
+ * </p>
+ */
+public class UpdateBatch {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int size = 0;
+	private PlayerDetails[] players;
+	private int[] playerNumbers;
+	private long[] x;
+	private long[] y;
+	private double[] angles;
+	private boolean[] foundObjects;
+
+	UpdateBatch() {
+		this.players = new PlayerDetails[INITIAL_CAPACITY];
+		this.playerNumbers = new int[INITIAL_CAPACITY];
+		this.x = new long[INITIAL_CAPACITY];
+		this.y = new long[INITIAL_CAPACITY];
+		this.angles = new double[INITIAL_CAPACITY];
+		this.foundObjects = new boolean[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Get the number of updates in this batch.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Check whether this batch contains no updates.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Get the player details of the update at the given index.
+	 */
+	public PlayerDetails getPlayerDetails(int index) {
+		checkIndex(index);
+		return players[index];
+	}
+
+	/**
+	 * Get the player number of the update at the given index.
+	 */
+	public int getPlayerNumber(int index) {
+		checkIndex(index);
+		return playerNumbers[index];
+	}
+
+	/**
+	 * Get the X-coordinate of the update at the given index.
+	 */
+	public long getX(int index) {
+		checkIndex(index);
+		return x[index];
+	}
+
+	/**
+	 * Get the Y-coordinate of the update at the given index.
+	 */
+	public long getY(int index) {
+		checkIndex(index);
+		return y[index];
+	}
+
+	/**
+	 * Get the angle of orientation of the update at the given index.
+	 */
+	public double getAngle(int index) {
+		checkIndex(index);
+		return angles[index];
+	}
+
+	/**
+	 * Check whether the player had found their object in the update at the
+	 * given index.
+	 */
+	public boolean hasFoundObject(int index) {
+		checkIndex(index);
+		return foundObjects[index];
+	}
+
+	/**
+	 * Add an update at the end of this batch.
+	 */
+	void add(PlayerDetails player, int playerNumber, long x, long y, double angle, boolean foundObject) {
+		if (size == players.length) {
+			grow();
+		}
+		set(size++, player, playerNumber, x, y, angle, foundObject);
+	}
+
+	/**
+	 * Replace the update at the given index.
+	 */
+	void set(int index, PlayerDetails player, int playerNumber, long x, long y, double angle, boolean foundObject) {
+		this.players[index] = player;
+		this.playerNumbers[index] = playerNumber;
+		this.x[index] = x;
+		this.y[index] = y;
+		this.angles[index] = angle;
+		this.foundObjects[index] = foundObject;
+	}
+
+	/**
+	 * Find the last update of the given player.
+	 * 
+	 * @return The index of the update, or -1 if not found.
+	 */
+	int lastIndexOf(String playerID) {
+		for (int i = size - 1; i >= 0; i--) {
+			if (players[i].getPlayerID().equals(playerID))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove all updates from this batch.
+	 */
+	void clear() {
+		Arrays.fill(players, 0, size, null);
+		size = 0;
+	}
+
+	private void grow() {
+		int capacity = players.length * 2;
+		players = Arrays.copyOf(players, capacity);
+		playerNumbers = Arrays.copyOf(playerNumbers, capacity);
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		angles = Arrays.copyOf(angles, capacity);
+		foundObjects = Arrays.copyOf(foundObjects, capacity);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+}
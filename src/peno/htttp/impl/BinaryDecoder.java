@@ -0,0 +1,139 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+/**
+ * A decoder for the compact binary message format.
+ * 
+ * @see BinaryEncoder
+ */
+public class BinaryDecoder {
+
+	private final StringCache strings;
+
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	public BinaryDecoder(StringCache strings) {
+		this.strings = strings;
+	}
+
+	public BinaryDecoder() {
+		this(new StringCache());
+	}
+
+	/**
+	 * Reset this decoder to read from the given input.
+	 * 
+	 * @param input
+	 *            The encoded input.
+	 */
+	public BinaryDecoder reset(byte[] input) {
+		return reset(input, 0, input.length);
+	}
+
+	/**
+	 * Reset this decoder to read from a range of the given input.
+	 * 
+	 * @param input
+	 *            The encoded input.
+	 * @param offset
+	 *            The offset of the first byte to read.
+	 * @param length
+	 *            The amount of bytes to read.
+	 */
+	public BinaryDecoder reset(byte[] input, int offset, int length) {
+		this.buffer = input;
+		this.position = offset;
+		this.limit = offset + length;
+		return this;
+	}
+
+	public int readByte() throws IOException {
+		require(1);
+		return buffer[position++] & 0xFF;
+	}
+
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	/**
+	 * Read a fixed-width 32-bit integer.
+	 */
+	public int readInt() throws IOException {
+		require(4);
+		int value = (buffer[position] & 0xFF) << 24 | (buffer[position + 1] & 0xFF) << 16
+				| (buffer[position + 2] & 0xFF) << 8 | (buffer[position + 3] & 0xFF);
+		position += 4;
+		return value;
+	}
+
+	/**
+	 * Read a fixed-width 64-bit floating point number.
+	 */
+	public double readDouble() throws IOException {
+		long high = readInt() & 0xFFFFFFFFL;
+		long low = readInt() & 0xFFFFFFFFL;
+		return Double.longBitsToDouble((high << 32) | low);
+	}
+
+	/**
+	 * Read an unsigned variable-length integer.
+	 */
+	public long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint at offset " + position);
+	}
+
+	/**
+	 * Read a signed variable-length integer.
+	 */
+	public long readZigZag() throws IOException {
+		long value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Read the number of elements which follow, such as the length of a
+	 * string or the size of a list.
+	 * 
+	 * <p>
+	 * The count is checked against the remaining input before the caller
+	 * allocates room for the elements.
+	 * </p>
+	 * 
+	 * @param minSize
+	 *            The minimum encoded size of a single element, in bytes.
+	 * @throws IOException
+	 *             If the remaining input cannot hold this many elements.
+	 */
+	public int readCount(int minSize) throws IOException {
+		long count = readVarint();
+		if (count < 0 || count > (limit - position) / minSize) {
+			throw new IOException("Invalid count " + count + " at offset " + position);
+		}
+		return (int) count;
+	}
+
+	public String readString() throws IOException {
+		int length = readCount(1);
+		String value = strings.get(buffer, position, length);
+		position += length;
+		return value;
+	}
+
+	private void require(int length) throws IOException {
+		if (length < 0 || length > limit - position) {
+			throw new IOException("Unexpected end of input at offset " + position);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package peno.htttp.impl;
+
+/**
+ * An encoder for the compact binary message format.
+ * 
+ * <p>
+ * Fields are written without names in a fixed order. Integers are written as
+ * variable-length quantities of seven bits per byte, with signed values
+ * zigzag-encoded first so small negative numbers stay small. Strings are
+ * written as their UTF-8 length followed by their UTF-8 bytes.
+ * </p>
+ * 
+ * <p>
+ * Encoders are pooled per thread, see {@link #get()}.
+ * </p>
+ */
+public class BinaryEncoder {
+
+	private static final ThreadLocal<BinaryEncoder> pool = new ThreadLocal<BinaryEncoder>() {
+		@Override
+		protected BinaryEncoder initialValue() {
+			return new BinaryEncoder();
+		}
+	};
+
+	private final OutputBuffer out = new OutputBuffer();
+
+	/**
+	 * Get the encoder of the current thread, cleared for a new message.
+	 * 
+	 * <p>
+	 * The returned encoder must no longer be used once the encoded output has
+	 * been retrieved.
+	 * </p>
+	 */
+	public static BinaryEncoder get() {
+		BinaryEncoder encoder = pool.get();
+		encoder.reset();
+		return encoder;
+	}
+
+	/**
+	 * Clear the output of this encoder.
+	 */
+	public void reset() {
+		out.reset();
+	}
+
+	public BinaryEncoder writeByte(int value) {
+		out.write(value);
+		return this;
+	}
+
+	public BinaryEncoder writeBoolean(boolean value) {
+		return writeByte(value ? 1 : 0);
+	}
+
+	/**
+	 * Write a fixed-width 32-bit integer.
+	 */
+	public BinaryEncoder writeInt(int value) {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+		return this;
+	}
+
+	/**
+	 * Write a fixed-width 64-bit floating point number.
+	 */
+	public BinaryEncoder writeDouble(double value) {
+		long bits = Double.doubleToLongBits(value);
+		writeInt((int) (bits >>> 32));
+		writeInt((int) bits);
+		return this;
+	}
+
+	/**
+	 * Write an unsigned variable-length integer.
+	 */
+	public BinaryEncoder writeVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+		return this;
+	}
+
+	/**
+	 * Write a signed variable-length integer.
+	 */
+	public BinaryEncoder writeZigZag(long value) {
+		return writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	public BinaryEncoder writeString(String value) {
+		writeVarint(OutputBuffer.utf8Length(value));
+		out.writeUTF8(value);
+		return this;
+	}
+
+	/**
+	 * Get the encoded output buffer.
+	 */
+	public OutputBuffer getOutput() {
+		return out;
+	}
+
+	/**
+	 * Copy the encoded output into an array of the exact size.
+	 */
+	public byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+}
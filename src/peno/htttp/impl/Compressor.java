@@ -0,0 +1,102 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses message payloads with the deflate algorithm.
+ * 
+ * <p>
+ * Compressed payloads are marked with the
+ * {@link peno.htttp.Constants#CONTENT_ENCODING_DEFLATE deflate} content
+ * encoding. Compressors are pooled per thread, see {@link #get()}.
+ * </p>
+ */
+public class Compressor {
+
+	/**
+	 * Maximum size of a decompressed payload.
+	 */
+	private static final int MAX_INFLATED_SIZE = 64 * 1024 * 1024;
+
+	private static final int CHUNK_SIZE = 4096;
+
+	private static final ThreadLocal<Compressor> pool = new ThreadLocal<Compressor>() {
+		@Override
+		protected Compressor initialValue() {
+			return new Compressor();
+		}
+	};
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final Inflater inflater = new Inflater();
+	private final OutputBuffer out = new OutputBuffer();
+
+	/**
+	 * Get the compressor of the current thread.
+	 */
+	public static Compressor get() {
+		return pool.get();
+	}
+
+	/**
+	 * Compress a payload.
+	 * 
+	 * @param input
+	 *            The input buffer.
+	 * @param offset
+	 *            The offset of the first byte.
+	 * @param length
+	 *            The amount of bytes.
+	 * @return The compressed payload.
+	 */
+	public byte[] deflate(byte[] input, int offset, int length) {
+		out.reset();
+		deflater.reset();
+		deflater.setInput(input, offset, length);
+		deflater.finish();
+		while (!deflater.finished()) {
+			out.reserve(CHUNK_SIZE);
+			out.advance(deflater.deflate(out.array(), out.size(), out.array().length - out.size()));
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decompress a payload.
+	 * 
+	 * <p>
+	 * The returned buffer is reused by the next call.
+	 * </p>
+	 * 
+	 * @param input
+	 *            The compressed payload.
+	 * @return The buffer holding the decompressed payload.
+	 * @throws IOException
+	 *             If the payload is malformed or too large.
+	 */
+	public OutputBuffer inflate(byte[] input) throws IOException {
+		out.reset();
+		inflater.reset();
+		inflater.setInput(input);
+		try {
+			while (!inflater.finished()) {
+				if (out.size() > MAX_INFLATED_SIZE) {
+					throw new IOException("Decompressed payload too large");
+				}
+				out.reserve(CHUNK_SIZE);
+				int length = inflater.inflate(out.array(), out.size(), out.array().length - out.size());
+				if (length == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated compressed payload");
+				}
+				out.advance(length);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Malformed compressed payload", e);
+		}
+		return out;
+	}
+
+}
@@ -1,35 +1,142 @@
 package peno.htttp.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import peno.htttp.Constants;
 
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.ShutdownSignalException;
-import com.rabbitmq.tools.json.JSONReader;
 
 public abstract class Consumer extends DefaultConsumer {
 
 	private final String queue;
+	private final String consumerTag;
+
+	private static final Map<String, Object> queueArguments = Collections.<String, Object> singletonMap(
+			Constants.QUEUE_MAX_PRIORITY, Constants.PRIORITY_CONTROL);
+
+	private static final ThreadLocal<Decoders> decoders = new ThreadLocal<Decoders>() {
+		@Override
+		protected Decoders initialValue() {
+			return new Decoders();
+		}
+	};
+	private final AtomicReferenceArray<Registration<?>> topicRegistrations = new AtomicReferenceArray<Registration<?>>(
+			Topic.values().length);
+	private final Map<String, Registration<?>> otherRegistrations = new ConcurrentHashMap<String, Registration<?>>();
 
 	public Consumer(Channel channel, String queue) throws IOException {
 		super(channel);
 		this.queue = queue;
 
 		// Consume queue
-		channel.basicConsume(queue, true, this);
+		this.consumerTag = channel.basicConsume(queue, true, this);
 	}
 
+	/**
+	 * Create a consumer on a new server-named, exclusive, auto-delete queue.
+	 * 
+	 * <p>
+	 * The queue supports {@link Constants#PRIORITY_CONTROL message
+	 * priorities}, so control messages overtake queued telemetry.
+	 * </p>
+	 */
 	public Consumer(Channel channel) throws IOException {
-		this(channel, channel.queueDeclare().getQueue());
+		this(channel, channel.queueDeclare("", false, true, true, queueArguments).getQueue());
 	}
 
 	protected String getQueue() {
 		return queue;
 	}
 
+	/**
+	 * Get the consumer tag, as soon as consuming has started.
+	 */
+	@Override
+	public String getConsumerTag() {
+		return consumerTag;
+	}
+
+	/**
+	 * Register a handler for messages with the given topic.
+	 * 
+	 * <p>
+	 * Deliveries with this topic are decoded into the given message, which is
+	 * reused for every delivery. Deliveries with unregistered topics are
+	 * ignored without being decoded.
+	 * </p>
+	 * 
+	 * <p>
+	 * The decoder is picked from the content type of each delivery, falling
+	 * back to JSON for unknown content types. Compressed deliveries are
+	 * decompressed first.
+	 * </p>
+	 * 
+	 * <p>
+	 * Handlers for {@link Topic fixed topics} are looked up by topic, other
+	 * topics such as team topics are looked up by name.
+	 * </p>
+	 * 
+	 * @param topic
+	 *            The topic.
+	 * @param message
+	 *            The message to decode into.
+	 * @param handler
+	 *            The message handler.
+	 */
+	protected <M extends Message> void register(String topic, M message, MessageHandler<? super M> handler) {
+		Registration<M> registration = new Registration<M>(message, handler);
+		Topic fixedTopic = Topic.forName(topic);
+		if (fixedTopic != null) {
+			topicRegistrations.set(fixedTopic.ordinal(), registration);
+		} else {
+			otherRegistrations.put(topic, registration);
+		}
+	}
+
+	/**
+	 * Get the topics of all registered handlers.
+	 */
+	protected List<String> getRegisteredTopics() {
+		List<String> topics = new ArrayList<String>();
+		Topic[] fixedTopics = Topic.values();
+		for (int i = 0; i < fixedTopics.length; i++) {
+			if (topicRegistrations.get(i) != null) {
+				topics.add(fixedTopics[i].getName());
+			}
+		}
+		topics.addAll(otherRegistrations.keySet());
+		return topics;
+	}
+
+	/**
+	 * Bind to the topics of all registered handlers on the given exchange.
+	 * 
+	 * <p>
+	 * Only messages handled by this consumer are delivered to its queue, so
+	 * consumers sharing an exchange each receive their own topics instead of
+	 * every message on the exchange.
+	 * </p>
+	 * 
+	 * @param exchange
+	 *            The exchange.
+	 * @throws IOException
+	 */
+	public void bindRegistered(String exchange) throws IOException {
+		for (String topic : getRegisteredTopics()) {
+			bind(exchange, topic);
+		}
+	}
+
 	public void bind(String exchange, String routingKey) throws IOException {
 		getChannel().queueBind(getQueue(), exchange, routingKey);
 	}
@@ -50,17 +157,104 @@ public abstract class Consumer extends DefaultConsumer {
 	public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties props, byte[] body)
 			throws IOException {
 		String topic = envelope.getRoutingKey();
-		Map<String, Object> message = parseMessage(body);
+		Topic fixedTopic = Topic.forName(topic);
+		Registration<?> registration = (fixedTopic != null) ? topicRegistrations.get(fixedTopic.ordinal())
+				: otherRegistrations.get(topic);
+		if (registration == null || !accept(topic, props))
+			return;
 
-		handleMessage(topic, message, props);
+		// Decode message
+		decode(registration.getMessage(), props, body);
+
+		// Handle message
+		registration.handle(props);
 	}
 
-	public abstract void handleMessage(String topic, Map<String, Object> message, BasicProperties props)
-			throws IOException;
+	/**
+	 * Decode the body of a delivery into a message.
+	 * 
+	 * <p>
+	 * The decoder is picked from the content type of the delivery, falling back
+	 * to JSON for unknown content types. Compressed bodies are decompressed
+	 * first.
+	 * </p>
+	 * 
+	 * @param message
+	 *            The message to decode into.
+	 * @param props
+	 *            The properties of the delivery.
+	 * @param body
+	 *            The body of the delivery.
+	 * @throws IOException
+	 */
+	protected void decode(Message message, BasicProperties props, byte[] body) throws IOException {
+		// Decompress payload
+		byte[] payload = body;
+		int length = body.length;
+		if (Constants.CONTENT_ENCODING_DEFLATE.equals(props.getContentEncoding())) {
+			OutputBuffer inflated = Compressor.get().inflate(body);
+			payload = inflated.array();
+			length = inflated.size();
+		}
+
+		// Decode message
+		Decoders decoders = Consumer.decoders.get();
+		if (Constants.CONTENT_TYPE_BINARY.equals(props.getContentType())) {
+			message.read(decoders.binary.reset(payload, 0, length));
+		} else {
+			message.read(decoders.json.reset(payload, 0, length));
+		}
+	}
+
+	/**
+	 * Check whether a delivery should be handled, before its body is
+	 * decoded.
+	 * 
+	 * <p>
+	 * Consumers can override this to drop deliveries based on their
+	 * properties, such as the {@link SenderHeaders sender headers}. By
+	 * default, all deliveries are accepted.
+	 * </p>
+	 * 
+	 * @param topic
+	 *            The topic of the delivery.
+	 * @param props
+	 *            The properties of the delivery.
+	 */
+	protected boolean accept(String topic, BasicProperties props) {
+		return true;
+	}
+
+	/**
+	 * Decoders of a delivery thread, shared by all consumers delivering on
+	 * that thread.
+	 */
+	private static class Decoders {
+
+		private final StringCache strings = new StringCache();
+		private final JSONDecoder json = new JSONDecoder(strings);
+		private final BinaryDecoder binary = new BinaryDecoder(strings);
+
+	}
+
+	private static class Registration<M extends Message> {
+
+		private final M message;
+		private final MessageHandler<? super M> handler;
+
+		public Registration(M message, MessageHandler<? super M> handler) {
+			this.message = message;
+			this.handler = handler;
+		}
+
+		public M getMessage() {
+			return message;
+		}
+
+		public void handle(BasicProperties props) throws IOException {
+			handler.handleMessage(message, props);
+		}
 
-	@SuppressWarnings("unchecked")
-	private static Map<String, Object> parseMessage(byte[] body) {
-		return (Map<String, Object>) new JSONReader().read(new String(body));
 	}
 
 }
@@ -0,0 +1,44 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import peno.htttp.Constants;
+import peno.htttp.DisconnectReason;
+
+/**
+ * A message announcing that a client's player has disconnected.
+ */
+public class DisconnectMessage extends JoinMessage {
+
+	private DisconnectReason reason;
+
+	public DisconnectReason getReason() {
+		return reason;
+	}
+
+	public void setReason(DisconnectReason reason) {
+		this.reason = reason;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		reason = null;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.DISCONNECT_REASON)) {
+			reason = DisconnectReason.valueOf(in.nextString());
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.DISCONNECT_REASON).value(reason.name());
+	}
+
+}
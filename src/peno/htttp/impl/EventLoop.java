@@ -0,0 +1,567 @@
+package peno.htttp.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An executor which runs tasks one by one on a single thread, in submission
+ * order.
+ * 
+ * <p>
+ * Tasks are queued in one of two lanes: a control lane for regular tasks and a
+ * telemetry lane for high-rate tasks such as position updates. The control
+ * lane is always drained first, so control tasks are never held up by
+ * telemetry. Within a lane, tasks run in submission order.
+ * </p>
+ * 
+ * <p>
+ * Each lane is a lock-free multi-producer single-consumer queue, so
+ * submitting never blocks. The queue is drained by a single thread, which is
+ * started when tasks arrive and stops after being idle for a while.
+ * Alternatively, the queue can be drained on a shared executor, in which case
+ * it is drained by at most one of its threads at a time.
+ * </p>
+ * 
+ * <p>
+ * The queue can be bounded to protect against slow tasks. Submitting never
+ * blocks, since tasks are often submitted from a delivery thread shared by
+ * many consumers. Once the bound is reached, telemetry gives way first: tasks
+ * submitted with {@link #executeLatest(Object, Object, Runnable)} only keep
+ * the newest pending task for each key, and are dropped when there is none.
+ * Other tasks are never dropped, but are queued beyond the bound and counted
+ * as {@link #getOverflowCount() overflowed}. Overflowing is not logged, so
+ * this counter is the only sign of a handler which cannot keep up.
+ * </p>
+ * 
+ * <p>
+ * In conflating mode, tasks submitted with
+ * {@link #executeLatest(Object, Object, Runnable)} always replace the pending
+ * task with the same key, even when the queue is not full.
+ * </p>
+ * 
+ * <p>
+ * In direct mode, tasks are not queued but run immediately on the submitting
+ * thread. A watchdog measures every direct task, and counts the tasks which
+ * take longer than the time budget.
+ * </p>
+ */
+public class EventLoop implements Executor {
+
+	private static final long IDLE_TIMEOUT = 60;
+	private static final int DRAIN_BUDGET = 64;
+	private static final long DEFAULT_TIME_BUDGET = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Executor executor;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final AtomicInteger depth = new AtomicInteger(0);
+
+	/*
+	 * Suspension
+	 */
+	private static final int RUNNING = 0;
+	private static final int SUSPENDING = 1;
+	private static final int SUSPENDED = 2;
+	private final AtomicInteger suspension = new AtomicInteger(RUNNING);
+
+	/*
+	 * Overload
+	 */
+	private volatile int capacity = 0;
+	private volatile boolean conflating = false;
+	private final ConcurrentMap<Object, LatestTask> latestTasks = new ConcurrentHashMap<Object, LatestTask>();
+	private final AtomicLong nbCoalesced = new AtomicLong(0);
+	private final AtomicLong nbDropped = new AtomicLong(0);
+	private final AtomicLong nbOverflowed = new AtomicLong(0);
+
+	/*
+	 * Direct mode
+	 */
+	private volatile boolean direct = false;
+	private volatile long timeBudget = DEFAULT_TIME_BUDGET;
+	private final AtomicLong nbOverBudget = new AtomicLong(0);
+	private final AtomicLong maxRunTime = new AtomicLong(0);
+
+	/*
+	 * Lanes
+	 */
+	private final Lane control = new Lane();
+	private final Lane telemetry = new Lane();
+
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Create an event loop with its own thread.
+	 * 
+	 * @param threadFactory
+	 *            The factory for the thread.
+	 */
+	public EventLoop(ThreadFactory threadFactory) {
+		this(createThread(threadFactory));
+	}
+
+	/**
+	 * Create an event loop which is drained on a shared executor.
+	 * 
+	 * <p>
+	 * The loop yields the executor thread after a number of tasks, so other
+	 * loops sharing the executor get their turn.
+	 * </p>
+	 * 
+	 * @param executor
+	 *            The executor on which to drain.
+	 */
+	public EventLoop(Executor executor) {
+		this.executor = executor;
+	}
+
+	static Executor createThread(ThreadFactory threadFactory) {
+		ThreadPoolExecutor thread = new ThreadPoolExecutor(1, 1, IDLE_TIMEOUT, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory);
+		thread.allowCoreThreadTimeOut(true);
+		return thread;
+	}
+
+	/**
+	 * Queue a task in the control lane, to be run after all previously queued
+	 * control tasks and before any telemetry.
+	 * 
+	 * <p>
+	 * The task is always queued, even when the queue is full.
+	 * </p>
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if (task == null)
+			throw new NullPointerException();
+		if (runDirect(task))
+			return;
+
+		enqueueOverflowing(control, task);
+	}
+
+	/**
+	 * Queue a task in the telemetry lane, to be run after all previously queued
+	 * tasks once no control tasks are pending.
+	 * 
+	 * <p>
+	 * The task is always queued, even when the queue is full, so the caller
+	 * must limit the number of pending tasks itself. For instance, a batch of
+	 * updates only schedules a new task once its previous task has started.
+	 * </p>
+	 */
+	public void executeTelemetry(Runnable task) {
+		if (task == null)
+			throw new NullPointerException();
+		if (runDirect(task))
+			return;
+
+		enqueueOverflowing(telemetry, task);
+	}
+
+	/**
+	 * Queue a task in the telemetry lane, replacing the pending task with the
+	 * same key and state.
+	 * 
+	 * <p>
+	 * Use this for tasks of which only the newest one is relevant, such as
+	 * position updates. If the queue is full or this loop is conflating, and a
+	 * task with the same key and state is still pending, that task is replaced
+	 * by the given task, which takes over its place in the queue. If there is
+	 * no such pending task and the queue is full, the task is dropped.
+	 * </p>
+	 * 
+	 * <p>
+	 * A task with a different state than the previous task with the same key
+	 * is never replaced or dropped, so state transitions are always observed.
+	 * </p>
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param state
+	 *            The state, or null.
+	 * @param task
+	 *            The task.
+	 */
+	public void executeLatest(Object key, Object state, Runnable task) {
+		if (key == null || task == null)
+			throw new NullPointerException();
+		if (runDirect(task))
+			return;
+
+		LatestTask latest = latestTasks.get(key);
+		boolean sameState = (latest != null) && equal(latest.state, state);
+		boolean full = isFull();
+
+		if (sameState && (full || conflating)) {
+			// Replace pending task
+			if (latest.getAndSet(task) != null) {
+				nbCoalesced.incrementAndGet();
+				return;
+			}
+			// Drop when full
+			if (full && latest.compareAndSet(task, null)) {
+				nbDropped.incrementAndGet();
+				return;
+			}
+		} else {
+			// Queue separately, later tasks replace this one
+			latest = new LatestTask(state);
+			latest.set(task);
+			latestTasks.put(key, latest);
+		}
+		enqueueOverflowing(telemetry, latest);
+	}
+
+	/**
+	 * Check whether tasks with the same key and state are always replaced.
+	 */
+	public boolean isConflating() {
+		return conflating;
+	}
+
+	/**
+	 * Set whether tasks with the same key and state are always replaced, or
+	 * only when the queue is full.
+	 * 
+	 * @param conflating
+	 *            True to always replace pending tasks.
+	 */
+	public void setConflating(boolean conflating) {
+		this.conflating = conflating;
+	}
+
+	/**
+	 * Get the maximum number of queued tasks, or zero if unbounded.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Set the maximum number of queued tasks.
+	 * 
+	 * @param capacity
+	 *            The capacity, or zero for an unbounded queue.
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Get the number of queued tasks which have not yet completed.
+	 */
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * Get the number of tasks which were replaced by a newer task with the same
+	 * key before they could run.
+	 */
+	public long getCoalescedCount() {
+		return nbCoalesced.get();
+	}
+
+	/**
+	 * Get the number of tasks which were dropped because the queue was full.
+	 */
+	public long getDroppedCount() {
+		return nbDropped.get();
+	}
+
+	/**
+	 * Get the number of tasks which were queued beyond the capacity.
+	 * 
+	 * <p>
+	 * A growing count means the tasks cannot keep up with the rate at which
+	 * they are submitted, and should be monitored.
+	 * </p>
+	 */
+	public long getOverflowCount() {
+		return nbOverflowed.get();
+	}
+
+	/**
+	 * Check whether tasks are run directly on the submitting thread.
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Set whether tasks are run directly on the submitting thread.
+	 * 
+	 * <p>
+	 * Direct tasks may run concurrently when submitted from different threads.
+	 * Tasks which are still queued when switching to direct mode are run after
+	 * later direct tasks.
+	 * </p>
+	 * 
+	 * @param direct
+	 *            True to run tasks directly.
+	 */
+	public void setDirect(boolean direct) {
+		this.direct = direct;
+	}
+
+	/**
+	 * Get the time budget of direct tasks.
+	 * 
+	 * @param unit
+	 *            The time unit of the result.
+	 */
+	public long getTimeBudget(TimeUnit unit) {
+		return unit.convert(timeBudget, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Set the time budget of direct tasks.
+	 * 
+	 * @param budget
+	 *            The time budget.
+	 * @param unit
+	 *            The time unit of the budget.
+	 */
+	public void setTimeBudget(long budget, TimeUnit unit) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("Invalid time budget: " + budget);
+		}
+		this.timeBudget = unit.toNanos(budget);
+	}
+
+	/**
+	 * Get the number of direct tasks which exceeded the time budget.
+	 */
+	public long getOverBudgetCount() {
+		return nbOverBudget.get();
+	}
+
+	/**
+	 * Get the longest running time of a direct task.
+	 * 
+	 * @param unit
+	 *            The time unit of the result.
+	 */
+	public long getMaxRunTime(TimeUnit unit) {
+		return unit.convert(maxRunTime.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Run a task on the current thread if in direct mode.
+	 * 
+	 * @return True if the task was run.
+	 */
+	private boolean runDirect(Runnable task) {
+		if (!direct)
+			return false;
+
+		long start = System.nanoTime();
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			// Handler failures must not reach the delivery thread
+		} finally {
+			watch(System.nanoTime() - start);
+		}
+		return true;
+	}
+
+	/**
+	 * Record the running time of a direct task.
+	 */
+	private void watch(long runTime) {
+		if (runTime > timeBudget) {
+			nbOverBudget.incrementAndGet();
+		}
+		long max;
+		while (runTime > (max = maxRunTime.get())) {
+			if (maxRunTime.compareAndSet(max, runTime))
+				break;
+		}
+	}
+
+	private void enqueue(Lane lane, Runnable task) {
+		// Append to lane
+		depth.incrementAndGet();
+		lane.offer(task);
+
+		// Start draining
+		schedule();
+	}
+
+	private void enqueueOverflowing(Lane lane, Runnable task) {
+		if (isFull()) {
+			nbOverflowed.incrementAndGet();
+		}
+		enqueue(lane, task);
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+
+	private boolean isFull() {
+		int capacity = this.capacity;
+		return capacity > 0 && depth.get() >= capacity;
+	}
+
+	/**
+	 * Stop draining after the current task, until resumed. Only called from a
+	 * task running on this loop.
+	 */
+	void suspend() {
+		suspension.set(SUSPENDING);
+	}
+
+	/**
+	 * Continue draining after a call to {@link #suspend()}.
+	 */
+	void resume() {
+		while (true) {
+			int state = suspension.get();
+			if (state == SUSPENDING && suspension.compareAndSet(SUSPENDING, RUNNING)) {
+				// Still draining, continues by itself
+				return;
+			} else if (state == SUSPENDED && suspension.compareAndSet(SUSPENDED, RUNNING)) {
+				// Drain was stopped, restart it
+				executor.execute(drainTask);
+				return;
+			} else if (state == RUNNING) {
+				return;
+			}
+		}
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(drainTask);
+		}
+	}
+
+	private void drain() {
+		Runnable task;
+		int budget = DRAIN_BUDGET;
+		while (budget-- > 0 && (task = poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// Handler failures must not stall later tasks
+			} finally {
+				depth.decrementAndGet();
+			}
+			if (suspension.get() == SUSPENDING && suspension.compareAndSet(SUSPENDING, SUSPENDED)) {
+				// Stay scheduled, resume restarts draining
+				return;
+			}
+		}
+
+		// Check for tasks queued while finishing up
+		scheduled.set(false);
+		if (depth.get() > 0) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Take the next task, from the control lane if possible. Only called by
+	 * the draining thread.
+	 */
+	private Runnable poll() {
+		Runnable task = control.poll();
+		if (task == null) {
+			task = telemetry.poll();
+		}
+		return task;
+	}
+
+	/**
+	 * Holds the newest pending task for a key and state.
+	 */
+	@SuppressWarnings("serial")
+	private static class LatestTask extends AtomicReference<Runnable> implements Runnable {
+
+		private final Object state;
+
+		public LatestTask(Object state) {
+			this.state = state;
+		}
+
+		@Override
+		public void run() {
+			Runnable task = getAndSet(null);
+			if (task != null) {
+				task.run();
+			}
+		}
+
+	}
+
+	/**
+	 * A multi-producer single-consumer queue of tasks.
+	 */
+	private static class Lane {
+
+		private final AtomicReference<Node> tail;
+		private Node head;
+
+		public Lane() {
+			Node stub = new Node(null);
+			this.head = stub;
+			this.tail = new AtomicReference<Node>(stub);
+		}
+
+		public void offer(Runnable task) {
+			Node node = new Node(task);
+			tail.getAndSet(node).next = node;
+		}
+
+		/**
+		 * Take the next task. Only called by the draining thread.
+		 */
+		public Runnable poll() {
+			Node next = head.next;
+			if (next == null) {
+				if (head == tail.get())
+					return null;
+				// Producer is still linking its node
+				while ((next = head.next) == null) {
+					Thread.yield();
+				}
+			}
+			Runnable task = next.task;
+			next.task = null;
+			head = next;
+			return task;
+		}
+
+	}
+
+	private static class Node {
+
+		private Runnable task;
+		private volatile Node next;
+
+		public Node(Runnable task) {
+			this.task = task;
+		}
+
+	}
+
+}
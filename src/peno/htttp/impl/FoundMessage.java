@@ -0,0 +1,43 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import peno.htttp.Constants;
+
+/**
+ * A message announcing that a player has found their object.
+ */
+public class FoundMessage extends Message {
+
+	private int playerNumber;
+
+	public int getPlayerNumber() {
+		return playerNumber;
+	}
+
+	public void setPlayerNumber(int playerNumber) {
+		this.playerNumber = playerNumber;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		playerNumber = 0;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.PLAYER_NUMBER)) {
+			playerNumber = in.nextInt();
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.PLAYER_NUMBER).value(playerNumber);
+	}
+
+}
@@ -0,0 +1,22 @@
+package peno.htttp.impl;
+
+/**
+ * A heart beat message, indicating that a player is still connected.
+ * 
+ * <p>
+ * Only the player identifier is read, any other fields are left unparsed.
+ * </p>
+ */
+public class HeartbeatMessage extends Message {
+
+	@Override
+	protected boolean isComplete() {
+		return getPlayerID() != null;
+	}
+
+	@Override
+	public boolean hasBinaryFormat() {
+		return true;
+	}
+
+}
@@ -0,0 +1,475 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * A streaming JSON decoder which reads directly from an UTF-8 encoded byte
+ * array.
+ * 
+ * <p>
+ * Values are pulled one by one from the input, without building an
+ * intermediate string or tree representation of the whole message. Numbers
+ * are parsed into primitives and frequently occurring strings (field names,
+ * identifiers) are shared through a {@link StringCache}.
+ * </p>
+ * 
+ * <p>
+ * A decoder is not thread-safe, but can be reused for multiple inputs by
+ * calling {@link #reset(byte[])}.
+ * </p>
+ */
+public class JSONDecoder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MAX_FAST_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final StringCache strings;
+
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	private byte[] scratch = new byte[64];
+
+	public JSONDecoder(StringCache strings) {
+		this.strings = strings;
+	}
+
+	public JSONDecoder() {
+		this(new StringCache());
+	}
+
+	/**
+	 * Reset this decoder to read from the given input.
+	 * 
+	 * @param input
+	 *            The UTF-8 encoded input.
+	 */
+	public JSONDecoder reset(byte[] input) {
+		return reset(input, 0, input.length);
+	}
+
+	/**
+	 * Reset this decoder to read from a range of the given input.
+	 * 
+	 * @param input
+	 *            The UTF-8 encoded input.
+	 * @param offset
+	 *            The offset of the first byte to read.
+	 * @param length
+	 *            The amount of bytes to read.
+	 */
+	public JSONDecoder reset(byte[] input, int offset, int length) {
+		this.buffer = input;
+		this.position = offset;
+		this.limit = offset + length;
+		return this;
+	}
+
+	/*
+	 * Structure
+	 */
+
+	public void beginObject() throws IOException {
+		expect('{');
+	}
+
+	public void endObject() throws IOException {
+		expect('}');
+	}
+
+	public void beginArray() throws IOException {
+		expect('[');
+	}
+
+	public void endArray() throws IOException {
+		expect(']');
+	}
+
+	/**
+	 * Check whether the current object or array has more elements.
+	 * 
+	 * <p>
+	 * Consumes the separator in front of the next element, if any.
+	 * </p>
+	 */
+	public boolean hasNext() throws IOException {
+		int c = peek();
+		if (c == ',') {
+			position++;
+			c = peek();
+		}
+		return c != '}' && c != ']';
+	}
+
+	/**
+	 * Read the name of the next field in the current object.
+	 */
+	public String nextName() throws IOException {
+		String name = nextString();
+		expect(':');
+		return name;
+	}
+
+	/*
+	 * Values
+	 */
+
+	/**
+	 * Consume a <code>null</code> value, if present.
+	 * 
+	 * @return True if the next value was <code>null</code>.
+	 */
+	public boolean nextNull() throws IOException {
+		if (peek() == 'n') {
+			expectLiteral("null");
+			return true;
+		}
+		return false;
+	}
+
+	public boolean nextBoolean() throws IOException {
+		if (peek() == 't') {
+			expectLiteral("true");
+			return true;
+		} else {
+			expectLiteral("false");
+			return false;
+		}
+	}
+
+	public String nextString() throws IOException {
+		expect('"');
+		final int start = position;
+		while (position < limit) {
+			byte b = buffer[position];
+			if (b == '"') {
+				// No escapes, share cached string
+				String value = strings.get(buffer, start, position - start);
+				position++;
+				return value;
+			} else if (b == '\\') {
+				// Escaped string
+				return nextEscapedString(start);
+			}
+			position++;
+		}
+		throw syntaxError("Unterminated string");
+	}
+
+	public int nextInt() throws IOException {
+		return (int) nextLong();
+	}
+
+	public long nextLong() throws IOException {
+		final int start = skipWhitespace();
+		final int end = scanNumber();
+
+		int i = start;
+		boolean negative = buffer[i] == '-';
+		if (negative) {
+			i++;
+		}
+		if (i == end) {
+			// Empty
+			return (long) parseDoubleSlow(start, end);
+		}
+
+		final int digits = end - i;
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9) {
+				// Fraction or exponent
+				return (long) parseDoubleSlow(start, end);
+			}
+			value = value * 10 + digit;
+		}
+		if (digits > 18) {
+			// Possibly overflowing, parse exactly
+			return parseLongSlow(start, end);
+		}
+		return negative ? -value : value;
+	}
+
+	public double nextDouble() throws IOException {
+		final int start = skipWhitespace();
+		final int end = scanNumber();
+
+		int i = start;
+		boolean negative = buffer[i] == '-';
+		if (negative) {
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for (; i < end; i++) {
+			byte b = buffer[i];
+			if (b == '.' && decimals < 0) {
+				decimals = 0;
+				continue;
+			}
+			int digit = b - '0';
+			if (digit < 0 || digit > 9 || ++digits > MAX_FAST_DIGITS) {
+				// Exponent, special value or too precise
+				return parseDoubleSlow(start, end);
+			}
+			mantissa = mantissa * 10 + digit;
+			if (decimals >= 0) {
+				decimals++;
+			}
+		}
+		if (digits == 0) {
+			throw syntaxError("Expected number");
+		}
+
+		// Both operands are exact, so the division is correctly rounded
+		double value = (decimals > 0) ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Skip the next value, including any nested objects or arrays.
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			int c = peek();
+			switch (c) {
+			case '{':
+			case '[':
+				position++;
+				depth++;
+				break;
+			case '}':
+			case ']':
+				position++;
+				depth--;
+				break;
+			case ',':
+			case ':':
+				position++;
+				break;
+			case '"':
+				skipString();
+				break;
+			default:
+				scanNumber();
+				break;
+			}
+		} while (depth > 0);
+	}
+
+	/*
+	 * Helpers
+	 */
+
+	private int peek() throws IOException {
+		skipWhitespace();
+		if (position >= limit) {
+			throw syntaxError("Unexpected end of input");
+		}
+		return buffer[position];
+	}
+
+	private int skipWhitespace() {
+		while (position < limit) {
+			byte b = buffer[position];
+			if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+				break;
+			position++;
+		}
+		return position;
+	}
+
+	private void expect(char c) throws IOException {
+		if (peek() != c) {
+			throw syntaxError("Expected '" + c + "'");
+		}
+		position++;
+	}
+
+	private void expectLiteral(String literal) throws IOException {
+		int length = literal.length();
+		if (position + length > limit) {
+			throw syntaxError("Expected " + literal);
+		}
+		for (int i = 0; i < length; i++) {
+			if (buffer[position + i] != literal.charAt(i)) {
+				throw syntaxError("Expected " + literal);
+			}
+		}
+		position += length;
+	}
+
+	/**
+	 * Advance past a number or bare literal.
+	 * 
+	 * @return The end position of the scanned token.
+	 */
+	private int scanNumber() throws IOException {
+		int start = position;
+		while (position < limit) {
+			byte b = buffer[position];
+			if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t')
+				break;
+			position++;
+		}
+		if (position == start) {
+			throw syntaxError("Expected value");
+		}
+		return position;
+	}
+
+	private double parseDoubleSlow(int start, int end) throws IOException {
+		try {
+			return Double.parseDouble(new String(buffer, start, end - start, UTF8));
+		} catch (NumberFormatException e) {
+			throw syntaxError("Invalid number");
+		}
+	}
+
+	private long parseLongSlow(int start, int end) throws IOException {
+		try {
+			return Long.parseLong(new String(buffer, start, end - start, UTF8));
+		} catch (NumberFormatException e) {
+			throw syntaxError("Number out of range");
+		}
+	}
+
+	private void skipString() throws IOException {
+		expect('"');
+		while (position < limit) {
+			byte b = buffer[position++];
+			if (b == '\\') {
+				position++;
+			} else if (b == '"') {
+				return;
+			}
+		}
+		throw syntaxError("Unterminated string");
+	}
+
+	/**
+	 * Read a string containing escape sequences.
+	 * 
+	 * <p>
+	 * The string is unescaped into a scratch buffer as UTF-8 and decoded once
+	 * it is complete.
+	 * </p>
+	 * 
+	 * @param start
+	 *            The position of the first byte of the string contents.
+	 */
+	private String nextEscapedString(int start) throws IOException {
+		int length = 0;
+		position = start;
+		while (position < limit) {
+			byte b = buffer[position++];
+			if (b == '"') {
+				return new String(scratch, 0, length, UTF8);
+			}
+			ensureScratch(length + 4);
+			if (b != '\\') {
+				scratch[length++] = b;
+				continue;
+			}
+			if (position >= limit)
+				break;
+			byte escape = buffer[position++];
+			switch (escape) {
+			case 'b':
+				scratch[length++] = '\b';
+				break;
+			case 'f':
+				scratch[length++] = '\f';
+				break;
+			case 'n':
+				scratch[length++] = '\n';
+				break;
+			case 'r':
+				scratch[length++] = '\r';
+				break;
+			case 't':
+				scratch[length++] = '\t';
+				break;
+			case 'u':
+				int codePoint = readHex();
+				if (Character.isHighSurrogate((char) codePoint)) {
+					// Combine surrogate pair
+					if (position + 2 > limit || buffer[position] != '\\' || buffer[position + 1] != 'u') {
+						throw syntaxError("Unpaired surrogate");
+					}
+					position += 2;
+					char low = (char) readHex();
+					if (!Character.isLowSurrogate(low)) {
+						throw syntaxError("Invalid surrogate pair");
+					}
+					codePoint = Character.toCodePoint((char) codePoint, low);
+				} else if (Character.isLowSurrogate((char) codePoint)) {
+					throw syntaxError("Unpaired surrogate");
+				}
+				length = writeUTF8(codePoint, length);
+				break;
+			default:
+				// Quote, backslash and slash
+				scratch[length++] = escape;
+				break;
+			}
+		}
+		throw syntaxError("Unterminated string");
+	}
+
+	private int readHex() throws IOException {
+		if (position + 4 > limit) {
+			throw syntaxError("Invalid unicode escape");
+		}
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			int digit = Character.digit(buffer[position++], 16);
+			if (digit < 0) {
+				throw syntaxError("Invalid unicode escape");
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	private int writeUTF8(int codePoint, int offset) {
+		if (codePoint < 0x80) {
+			scratch[offset++] = (byte) codePoint;
+		} else if (codePoint < 0x800) {
+			scratch[offset++] = (byte) (0xC0 | (codePoint >> 6));
+			scratch[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+		} else if (codePoint < 0x10000) {
+			scratch[offset++] = (byte) (0xE0 | (codePoint >> 12));
+			scratch[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			scratch[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+		} else {
+			scratch[offset++] = (byte) (0xF0 | (codePoint >> 18));
+			scratch[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+			scratch[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			scratch[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+		}
+		return offset;
+	}
+
+	private void ensureScratch(int capacity) {
+		if (scratch.length < capacity) {
+			byte[] newScratch = new byte[Math.max(capacity, scratch.length * 2)];
+			System.arraycopy(scratch, 0, newScratch, 0, scratch.length);
+			scratch = newScratch;
+		}
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " at offset " + position);
+	}
+
+}
@@ -0,0 +1,221 @@
+package peno.htttp.impl;
+
+/**
+ * A streaming JSON encoder which writes UTF-8 directly into a byte buffer.
+ * 
+ * <p>
+ * Values are appended one by one, so no intermediate map, boxed values or
+ * strings are needed to build a message. Encoders are pooled per thread, see
+ * {@link #get()}.
+ * </p>
+ */
+public class JSONEncoder {
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e',
+			'f' };
+
+	private static final ThreadLocal<JSONEncoder> pool = new ThreadLocal<JSONEncoder>() {
+		@Override
+		protected JSONEncoder initialValue() {
+			return new JSONEncoder();
+		}
+	};
+
+	private final OutputBuffer out = new OutputBuffer();
+	private final StringBuilder scratch = new StringBuilder(32);
+	private boolean needsSeparator = false;
+
+	/**
+	 * Get the encoder of the current thread, cleared for a new message.
+	 * 
+	 * <p>
+	 * The returned encoder must no longer be used once the encoded output has
+	 * been retrieved.
+	 * </p>
+	 */
+	public static JSONEncoder get() {
+		JSONEncoder encoder = pool.get();
+		encoder.reset();
+		return encoder;
+	}
+
+	/**
+	 * Clear the output of this encoder.
+	 */
+	public void reset() {
+		out.reset();
+		needsSeparator = false;
+	}
+
+	/*
+	 * Structure
+	 */
+
+	public JSONEncoder beginObject() {
+		separator();
+		out.write('{');
+		needsSeparator = false;
+		return this;
+	}
+
+	public JSONEncoder endObject() {
+		out.write('}');
+		needsSeparator = true;
+		return this;
+	}
+
+	public JSONEncoder beginArray() {
+		separator();
+		out.write('[');
+		needsSeparator = false;
+		return this;
+	}
+
+	public JSONEncoder endArray() {
+		out.write(']');
+		needsSeparator = true;
+		return this;
+	}
+
+	/**
+	 * Write the name of the next field in the current object.
+	 */
+	public JSONEncoder name(String name) {
+		separator();
+		writeString(name);
+		out.write(':');
+		needsSeparator = false;
+		return this;
+	}
+
+	/*
+	 * Values
+	 */
+
+	public JSONEncoder value(String value) {
+		separator();
+		if (value == null) {
+			out.writeASCII("null");
+		} else {
+			writeString(value);
+		}
+		needsSeparator = true;
+		return this;
+	}
+
+	public JSONEncoder value(long value) {
+		separator();
+		writeLong(value);
+		needsSeparator = true;
+		return this;
+	}
+
+	public JSONEncoder value(double value) {
+		separator();
+		// Formats into the builder without an intermediate string
+		scratch.setLength(0);
+		scratch.append(value);
+		out.writeASCII(scratch);
+		needsSeparator = true;
+		return this;
+	}
+
+	public JSONEncoder value(boolean value) {
+		separator();
+		out.writeASCII(value ? "true" : "false");
+		needsSeparator = true;
+		return this;
+	}
+
+	/**
+	 * Get the encoded output buffer.
+	 */
+	public OutputBuffer getOutput() {
+		return out;
+	}
+
+	/**
+	 * Copy the encoded output into an array of the exact size.
+	 */
+	public byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+	/*
+	 * Helpers
+	 */
+
+	private void separator() {
+		if (needsSeparator) {
+			out.write(',');
+		}
+	}
+
+	private void writeLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			out.writeASCII("-9223372036854775808");
+			return;
+		}
+		if (value < 0) {
+			out.write('-');
+			value = -value;
+		}
+		// Find highest power of ten
+		long divisor = 1;
+		while (divisor <= value / 10) {
+			divisor *= 10;
+		}
+		// Write digits
+		while (divisor > 0) {
+			out.write('0' + (int) (value / divisor));
+			value %= divisor;
+			divisor /= 10;
+		}
+	}
+
+	private void writeString(String value) {
+		out.write('"');
+		int length = value.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\')
+				continue;
+
+			// Flush unescaped part
+			if (start < i) {
+				out.writeUTF8(value, start, i);
+			}
+			start = i + 1;
+
+			// Escape
+			out.write('\\');
+			switch (c) {
+			case '"':
+			case '\\':
+				out.write(c);
+				break;
+			case '\n':
+				out.write('n');
+				break;
+			case '\r':
+				out.write('r');
+				break;
+			case '\t':
+				out.write('t');
+				break;
+			default:
+				out.write('u');
+				out.write('0');
+				out.write('0');
+				out.write(HEX[c >> 4]);
+				out.write(HEX[c & 0xF]);
+			}
+		}
+		if (start < length) {
+			out.writeUTF8(value, start, length);
+		}
+		out.write('"');
+	}
+
+}
@@ -0,0 +1,46 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import peno.htttp.Constants;
+
+/**
+ * A message announcing that a client's player is joining or has joined the
+ * game.
+ */
+public class JoinMessage extends Message {
+
+	private String clientID;
+
+	public String getClientID() {
+		return clientID;
+	}
+
+	public void setClientID(String clientID) {
+		this.clientID = clientID;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		clientID = null;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.CLIENT_ID)) {
+			clientID = in.nextString();
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		if (clientID != null) {
+			out.name(Constants.CLIENT_ID).value(clientID);
+		}
+	}
+
+}
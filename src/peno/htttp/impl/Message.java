@@ -0,0 +1,201 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import peno.htttp.Constants;
+
+/**
+ * A message sent by a player.
+ * 
+ * <p>
+ * Every message carries the identifier of the sending player. Topics without
+ * any additional fields (such as start, stop and team pings) use this class
+ * directly, other topics have a dedicated subclass.
+ * </p>
+ * 
+ * <p>
+ * All messages can be encoded as JSON. Messages on high-frequency topics also
+ * have a compact binary format, which starts with a format version byte
+ * followed by the fields in a fixed order.
+ * </p>
+ * 
+ * <p>
+ * Messages are reusable: consumers decode every delivery of a topic into the
+ * same instance, so received messages must not be retained after handling.
+ * </p>
+ */
+public class Message {
+
+	/**
+	 * The version of the binary format.
+	 */
+	public static final int BINARY_VERSION = 1;
+
+	private String playerID;
+
+	public String getPlayerID() {
+		return playerID;
+	}
+
+	public void setPlayerID(String playerID) {
+		this.playerID = playerID;
+	}
+
+	/**
+	 * Clear all fields.
+	 */
+	public void reset() {
+		playerID = null;
+	}
+
+	/**
+	 * Reset this message and read its fields from the given decoder.
+	 * 
+	 * <p>
+	 * Reading stops as soon as the message is complete, leaving the remainder
+	 * of the input unparsed.
+	 * </p>
+	 * 
+	 * @param in
+	 *            The decoder.
+	 * @throws IOException
+	 *             If the message is malformed.
+	 */
+	public final void read(JSONDecoder in) throws IOException {
+		reset();
+
+		in.beginObject();
+		while (in.hasNext()) {
+			String name = in.nextName();
+			if (in.nextNull())
+				continue;
+			if (!readField(name, in)) {
+				in.skipValue();
+			} else if (isComplete()) {
+				return;
+			}
+		}
+		in.endObject();
+	}
+
+	/**
+	 * Write this message to the given encoder.
+	 * 
+	 * @param out
+	 *            The encoder.
+	 */
+	public final void write(JSONEncoder out) {
+		out.beginObject();
+		writeFields(out);
+		out.endObject();
+	}
+
+	/**
+	 * Check whether this message has a binary format.
+	 */
+	public boolean hasBinaryFormat() {
+		return false;
+	}
+
+	/**
+	 * Reset this message and read it in the binary format from the given
+	 * decoder.
+	 * 
+	 * @param in
+	 *            The decoder.
+	 * @throws IOException
+	 *             If the message is malformed or has no binary format.
+	 */
+	public final void read(BinaryDecoder in) throws IOException {
+		if (!hasBinaryFormat()) {
+			throw new IOException("No binary format for " + getClass().getSimpleName());
+		}
+
+		reset();
+
+		int version = in.readByte();
+		if (version != BINARY_VERSION) {
+			throw new IOException("Unsupported binary format version: " + version);
+		}
+		readBinary(in);
+	}
+
+	/**
+	 * Write this message in the binary format to the given encoder.
+	 * 
+	 * @param out
+	 *            The encoder.
+	 * @throws IllegalStateException
+	 *             If this message has no binary format.
+	 */
+	public final void write(BinaryEncoder out) throws IllegalStateException {
+		if (!hasBinaryFormat()) {
+			throw new IllegalStateException("No binary format for " + getClass().getSimpleName());
+		}
+
+		out.writeByte(BINARY_VERSION);
+		writeBinary(out);
+	}
+
+	/**
+	 * Check whether all needed fields have been read.
+	 * 
+	 * <p>
+	 * Messages which only need some of their fields can override this to
+	 * stop reading early. By default, all fields are read.
+	 * </p>
+	 */
+	protected boolean isComplete() {
+		return false;
+	}
+
+	/**
+	 * Read the value of a field.
+	 * 
+	 * @param name
+	 *            The field name.
+	 * @param in
+	 *            The decoder, positioned at the field value.
+	 * @return True if the field is known and its value has been read.
+	 * @throws IOException
+	 */
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.PLAYER_ID)) {
+			playerID = in.nextString();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Write the fields of this message.
+	 * 
+	 * @param out
+	 *            The encoder.
+	 */
+	protected void writeFields(JSONEncoder out) {
+		out.name(Constants.PLAYER_ID).value(playerID);
+	}
+
+	/**
+	 * Read the fields of this message in the binary format.
+	 * 
+	 * @param in
+	 *            The decoder.
+	 * @throws IOException
+	 */
+	protected void readBinary(BinaryDecoder in) throws IOException {
+		playerID = in.readString();
+	}
+
+	/**
+	 * Write the fields of this message in the binary format.
+	 * 
+	 * @param out
+	 *            The encoder.
+	 */
+	protected void writeBinary(BinaryEncoder out) {
+		out.writeString(playerID);
+	}
+
+}
@@ -0,0 +1,28 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * A handler for received messages of a specific type.
+ */
+public interface MessageHandler<M extends Message> {
+
+	/**
+	 * Handle a received message.
+	 * 
+	 * <p>
+	 * The given message is reused for the next delivery, so it must not be
+	 * retained after this method returns.
+	 * </p>
+	 * 
+	 * @param message
+	 *            The decoded message.
+	 * @param props
+	 *            The message properties.
+	 * @throws IOException
+	 */
+	public void handleMessage(M message, BasicProperties props) throws IOException;
+
+}
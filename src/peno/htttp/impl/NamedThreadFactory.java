@@ -4,15 +4,43 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A thread factory which names its threads after a format.
+ * 
+ * <p>
+ * A factory can create virtual threads when the Java runtime supports them.
+ * This allows a single process to host thousands of clients, each with their
+ * own handler, request and heart beat threads. By default, factories create
+ * virtual threads when the {@value #VIRTUAL_THREADS_PROPERTY} system property
+ * is set to <code>true</code>. Otherwise, or when virtual threads are not
+ * supported, platform threads are created.
+ * </p>
+ * 
+ * <p>
+ * Before Java 24, a virtual thread which waits inside a
+ * <code>synchronized</code> block keeps its carrier thread. The threading
+ * code of this library waits on explicit locks instead, but handlers which
+ * block inside <code>synchronized</code> blocks should be avoided.
+ * </p>
+ */
 public class NamedThreadFactory implements ThreadFactory {
 
+	/**
+	 * System property to enable virtual threads.
+	 */
+	public static final String VIRTUAL_THREADS_PROPERTY = "peno.htttp.virtualThreads";
+
+	private static final ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+
 	private final String nameFormat;
 	private final AtomicLong count = new AtomicLong(0);
 
-	private final ThreadFactory backingThreadFactory = Executors.defaultThreadFactory();
+	private volatile ThreadFactory backingThreadFactory;
 
 	/**
-	 * Creates a new named {@link ThreadFactory} builder.
+	 * Creates a new named {@link ThreadFactory} builder, which creates virtual
+	 * threads when the {@value #VIRTUAL_THREADS_PROPERTY} system property is
+	 * set.
 	 * 
 	 * @param nameFormat
 	 *            a {@link String#format(String, Object...)}-compatible format
@@ -22,8 +50,25 @@ public class NamedThreadFactory implements ThreadFactory {
 	 *            assigned sequentially.
 	 */
 	public NamedThreadFactory(String nameFormat) {
+		this(nameFormat, Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY));
+	}
+
+	/**
+	 * Creates a new named {@link ThreadFactory} builder.
+	 * 
+	 * @param nameFormat
+	 *            a {@link String#format(String, Object...)}-compatible format
+	 *            String, to which a unique integer (0, 1, etc.) will be
+	 *            supplied as the single parameter. This integer will be unique
+	 *            to the built instance of the ThreadFactory and will be
+	 *            assigned sequentially.
+	 * @param virtual
+	 *            True to create virtual threads if supported.
+	 */
+	public NamedThreadFactory(String nameFormat, boolean virtual) {
 		String.format(nameFormat, 0); // fail fast if the format is bad or null
 		this.nameFormat = nameFormat;
+		this.backingThreadFactory = getBackingThreadFactory(virtual);
 	}
 
 	@Override
@@ -33,4 +78,54 @@ public class NamedThreadFactory implements ThreadFactory {
 		return thread;
 	}
 
+	/**
+	 * Set whether this factory creates virtual threads.
+	 * 
+	 * @param virtual
+	 *            True to create virtual threads if supported.
+	 * @throws IllegalStateException
+	 *             If this factory has already created threads.
+	 */
+	public void setVirtual(boolean virtual) throws IllegalStateException {
+		if (hasCreatedThreads()) {
+			throw new IllegalStateException("Threads have already been created.");
+		}
+		this.backingThreadFactory = getBackingThreadFactory(virtual);
+	}
+
+	/**
+	 * Check whether this factory has created any threads.
+	 */
+	public boolean hasCreatedThreads() {
+		return count.get() > 0;
+	}
+
+	/**
+	 * Check whether the Java runtime supports virtual threads.
+	 */
+	public static boolean isVirtualSupported() {
+		return virtualThreadFactory != null;
+	}
+
+	private static ThreadFactory getBackingThreadFactory(boolean virtual) {
+		return (virtual && virtualThreadFactory != null) ? virtualThreadFactory : Executors.defaultThreadFactory();
+	}
+
+	/**
+	 * Create a factory for virtual threads.
+	 * 
+	 * @return The factory, or null if virtual threads are not supported.
+	 */
+	private static ThreadFactory createVirtualThreadFactory() {
+		try {
+			// Thread.ofVirtual().factory(), through reflection to keep
+			// supporting older runtimes
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
 }
@@ -0,0 +1,168 @@
+package peno.htttp.impl;
+
+/**
+ * A growable byte buffer for encoding messages.
+ * 
+ * <p>
+ * Buffers are meant to be reused: {@link #reset()} keeps the allocated
+ * storage, unless it has grown beyond a retention limit after encoding an
+ * exceptionally large message.
+ * </p>
+ */
+public class OutputBuffer {
+
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * Clear the contents of this buffer.
+	 */
+	public void reset() {
+		size = 0;
+		if (buffer.length > MAX_RETAINED_CAPACITY) {
+			buffer = new byte[INITIAL_CAPACITY];
+		}
+	}
+
+	/**
+	 * Get the amount of written bytes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the backing array, holding {@link #size()} written bytes.
+	 */
+	public byte[] array() {
+		return buffer;
+	}
+
+	/**
+	 * Copy the written bytes into an array of the exact size.
+	 */
+	public byte[] toByteArray() {
+		byte[] out = new byte[size];
+		System.arraycopy(buffer, 0, out, 0, size);
+		return out;
+	}
+
+	/**
+	 * Make room for at least the given amount of bytes, which can then be
+	 * written directly into the backing array starting at {@link #size()}.
+	 */
+	public void reserve(int length) {
+		ensureCapacity(length);
+	}
+
+	/**
+	 * Mark bytes written directly into the backing array as written.
+	 */
+	public void advance(int length) {
+		size += length;
+	}
+
+	public void write(int b) {
+		ensureCapacity(1);
+		buffer[size++] = (byte) b;
+	}
+
+	public void write(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+	}
+
+	/**
+	 * Write the ASCII characters of the given sequence.
+	 */
+	public void writeASCII(CharSequence chars) {
+		int length = chars.length();
+		ensureCapacity(length);
+		for (int i = 0; i < length; i++) {
+			buffer[size++] = (byte) chars.charAt(i);
+		}
+	}
+
+	/**
+	 * Write the given string encoded as UTF-8.
+	 */
+	public void writeUTF8(String value) {
+		writeUTF8(value, 0, value.length());
+	}
+
+	/**
+	 * Write a range of the given string encoded as UTF-8.
+	 * 
+	 * @param value
+	 *            The string.
+	 * @param start
+	 *            The index of the first char to write.
+	 * @param end
+	 *            The index after the last char to write.
+	 */
+	public void writeUTF8(String value, int start, int end) {
+		ensureCapacity(end - start);
+		for (int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				// Fits in capacity reserved up front
+				buffer[size++] = (byte) c;
+			} else {
+				// At most three bytes for each remaining char
+				ensureCapacity((end - i) * 3);
+				if (c < 0x800) {
+					buffer[size++] = (byte) (0xC0 | (c >> 6));
+					buffer[size++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < end
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+					buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else {
+					buffer[size++] = (byte) (0xE0 | (c >> 12));
+					buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					buffer[size++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the length of the given string encoded as UTF-8.
+	 */
+	public static int utf8Length(String value) {
+		int length = value.length();
+		int utf8Length = length;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x800) {
+				if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					// Four bytes for two chars
+					utf8Length += 2;
+					i++;
+				} else {
+					utf8Length += 2;
+				}
+			} else if (c >= 0x80) {
+				utf8Length += 1;
+			}
+		}
+		return utf8Length;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (size + extra > buffer.length) {
+			byte[] newBuffer = new byte[Math.max(size + extra, buffer.length * 2)];
+			System.arraycopy(buffer, 0, newBuffer, 0, size);
+			buffer = newBuffer;
+		}
+	}
+
+}
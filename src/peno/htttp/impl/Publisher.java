@@ -0,0 +1,324 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+
+/**
+ * Publishes messages on a channel from a single thread.
+ * 
+ * <p>
+ * Messages of a client are published from many threads: user threads, the
+ * heart beat thread and consumer threads. Instead of publishing on the
+ * channel directly, messages are appended to a lock-free multi-producer
+ * single-consumer queue, which is drained by a single thread. Publishing
+ * never blocks on socket I/O, and messages are published in the order in
+ * which they were queued.
+ * </p>
+ * 
+ * <p>
+ * Only publishes go through this thread. Consumers still bind, unbind,
+ * delete and cancel on the same channel from their own threads, which is
+ * safe because the client library serializes the frames of a channel.
+ * </p>
+ * 
+ * <p>
+ * Every wake-up of the publishing thread publishes at most
+ * {@value #DRAIN_BUDGET} messages, each with its own call to
+ * {@link Channel#basicPublish(String, String, BasicProperties, byte[])},
+ * before yielding its thread. The publisher must be
+ * {@link #close(long, TimeUnit) closed} before its channel is closed, so that
+ * all queued messages are published first.
+ * </p>
+ * 
+ * <p>
+ * Once publishing a message fails, the publisher has failed for good. The
+ * remaining queued messages are discarded, so no message is published after
+ * one which was lost, and every later call to
+ * {@link #publish(String, String, BasicProperties, byte[])} throws the
+ * failure. Every caller sees the same failure, instead of only the one which
+ * happens to publish next.
+ * </p>
+ */
+public class Publisher {
+
+	private static final int DRAIN_BUDGET = 64;
+
+	private final Channel channel;
+	private final Executor executor;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final AtomicInteger depth = new AtomicInteger(0);
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private final Lock flushLock = new ReentrantLock();
+	private final Condition flushed = flushLock.newCondition();
+	private volatile boolean isClosed = false;
+	private volatile Thread runner;
+
+	/*
+	 * Queue
+	 */
+	private final AtomicReference<Publication> tail;
+	private Publication head;
+
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Create a publisher with its own thread.
+	 * 
+	 * @param channel
+	 *            The channel on which to publish.
+	 * @param threadFactory
+	 *            The factory for the publishing thread.
+	 */
+	public Publisher(Channel channel, ThreadFactory threadFactory) {
+		this(channel, EventLoop.createThread(threadFactory));
+	}
+
+	/**
+	 * Create a publisher which publishes on a shared executor.
+	 * 
+	 * <p>
+	 * The publisher yields the executor thread after every
+	 * {@value #DRAIN_BUDGET} messages, so other publishers sharing the
+	 * executor get their turn.
+	 * </p>
+	 * 
+	 * @param channel
+	 *            The channel on which to publish.
+	 * @param executor
+	 *            The executor on which to publish.
+	 */
+	public Publisher(Channel channel, Executor executor) {
+		this.channel = channel;
+		this.executor = executor;
+		Publication stub = new Publication(null, null, null, null);
+		this.head = stub;
+		this.tail = new AtomicReference<Publication>(stub);
+	}
+
+	/**
+	 * Get the channel on which messages are published.
+	 */
+	public Channel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Get the number of queued messages which have not yet been published.
+	 */
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * Get the failure which stopped this publisher.
+	 * 
+	 * @return The failure, or null if publishing has not failed.
+	 */
+	public Throwable getFailure() {
+		return failure.get();
+	}
+
+	/**
+	 * Check whether this publisher has been closed.
+	 */
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	/**
+	 * Queue a message for publishing.
+	 * 
+	 * @param exchange
+	 *            The exchange to publish to.
+	 * @param routingKey
+	 *            The routing key.
+	 * @param props
+	 *            The message properties.
+	 * @param body
+	 *            The message body.
+	 * @throws IOException
+	 *             If publishing has failed, in which case this message is not
+	 *             queued.
+	 * @throws IllegalStateException
+	 *             If this publisher has been closed.
+	 */
+	public void publish(String exchange, String routingKey, BasicProperties props, byte[] body)
+			throws IOException, IllegalStateException {
+		checkFailure();
+		// Count before checking, so close either sees this message or rejects it
+		depth.incrementAndGet();
+		if (isClosed()) {
+			if (depth.decrementAndGet() == 0) {
+				signalFlushed();
+			}
+			throw new IllegalStateException("Publisher has been closed.");
+		}
+		Publication publication = new Publication(exchange, routingKey, props, body);
+		tail.getAndSet(publication).next = publication;
+		schedule();
+	}
+
+	/**
+	 * Wait until all queued messages have been published.
+	 * 
+	 * @param timeout
+	 *            The maximum time to wait.
+	 * @param unit
+	 *            The time unit of the timeout.
+	 * @return True if all messages were published, false if the timeout passed.
+	 * @throws InterruptedException
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		if (runner == Thread.currentThread()) {
+			// Cannot wait for ourselves
+			return depth.get() == 0;
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		flushLock.lock();
+		try {
+			while (depth.get() > 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+					return false;
+				flushed.awaitNanos(remaining);
+			}
+		} finally {
+			flushLock.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * Stop accepting messages and wait until all queued messages have been
+	 * published.
+	 * 
+	 * <p>
+	 * Messages which are being queued while closing are either published
+	 * before this returns, or rejected.
+	 * </p>
+	 * 
+	 * @param timeout
+	 *            The maximum time to wait.
+	 * @param unit
+	 *            The time unit of the timeout.
+	 * @return True if all messages were published, false if the timeout passed
+	 *         or the calling thread was interrupted.
+	 */
+	public boolean close(long timeout, TimeUnit unit) {
+		isClosed = true;
+		try {
+			return flush(timeout, unit);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable cause = failure.get();
+		if (cause != null) {
+			throw new IOException("Publisher has failed.", cause);
+		}
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(drainTask);
+		}
+	}
+
+	private void drain() {
+		runner = Thread.currentThread();
+		Publication publication;
+		int budget = DRAIN_BUDGET;
+		while (budget-- > 0 && (publication = poll()) != null) {
+			try {
+				if (failure.get() == null) {
+					channel.basicPublish(publication.exchange, publication.routingKey, publication.props,
+							publication.body);
+				}
+			} catch (IOException e) {
+				failure.compareAndSet(null, e);
+			} catch (RuntimeException e) {
+				// Includes shut down channels
+				failure.compareAndSet(null, e);
+			} finally {
+				if (depth.decrementAndGet() == 0) {
+					signalFlushed();
+				}
+			}
+		}
+		runner = null;
+
+		// Check for messages queued while finishing up
+		scheduled.set(false);
+		if (depth.get() > 0) {
+			schedule();
+		}
+	}
+
+	private void signalFlushed() {
+		flushLock.lock();
+		try {
+			flushed.signalAll();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Take the next message. Only called by the publishing thread.
+	 */
+	private Publication poll() {
+		Publication next = head.next;
+		if (next == null) {
+			if (head == tail.get())
+				return null;
+			// Producer is still linking its message
+			while ((next = head.next) == null) {
+				Thread.yield();
+			}
+		}
+		// Release the previous message
+		head.body = null;
+		head = next;
+		return next;
+	}
+
+	/**
+	 * A queued message, which also serves as node in the queue.
+	 */
+	private static class Publication {
+
+		private final String exchange;
+		private final String routingKey;
+		private final BasicProperties props;
+		private byte[] body;
+		private volatile Publication next;
+
+		public Publication(String exchange, String routingKey, BasicProperties props, byte[] body) {
+			this.exchange = exchange;
+			this.routingKey = routingKey;
+			this.props = props;
+			this.body = body;
+		}
+
+	}
+
+}
@@ -0,0 +1,43 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import peno.htttp.Constants;
+
+/**
+ * A message announcing the ready state of a player.
+ */
+public class ReadyMessage extends Message {
+
+	private boolean isReady;
+
+	public boolean isReady() {
+		return isReady;
+	}
+
+	public void setReady(boolean isReady) {
+		this.isReady = isReady;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		isReady = false;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.IS_READY)) {
+			isReady = in.nextBoolean();
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.IS_READY).value(isReady);
+	}
+
+}
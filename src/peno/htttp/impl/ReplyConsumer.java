@@ -0,0 +1,201 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import peno.htttp.Constants;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * Consumes the replies to all requests of a client on a single queue.
+ * 
+ * <p>
+ * Every request gets a unique correlation identifier, under which its
+ * {@link Requester} is registered while the request is outstanding. Replies
+ * are matched to their requester by correlation identifier, so requests do
+ * not need a queue of their own.
+ * </p>
+ * 
+ * <p>
+ * When the broker supports {@link Constants#DIRECT_REPLY_TO direct reply-to},
+ * replies are consumed from the pseudo-queue instead. Replies are then
+ * delivered straight to this consumer without being routed through a queue.
+ * Requests must be published through the {@link #getPublisher() publisher} of
+ * this consumer, which publishes on the same channel.
+ * </p>
+ */
+public class ReplyConsumer extends Consumer {
+
+	private final Publisher publisher;
+	private final RequestProvider provider;
+	private final boolean isDirect;
+	private final ConcurrentMap<String, Requester<?>> requests = new ConcurrentHashMap<String, Requester<?>>();
+
+	/**
+	 * Create a reply consumer on a new server-named queue.
+	 */
+	public ReplyConsumer(Publisher publisher, RequestProvider provider) throws IOException {
+		super(publisher.getChannel());
+		this.publisher = publisher;
+		this.provider = provider;
+		this.isDirect = false;
+	}
+
+	private ReplyConsumer(Publisher publisher, String queue, RequestProvider provider) throws IOException {
+		super(publisher.getChannel(), queue);
+		this.publisher = publisher;
+		this.provider = provider;
+		this.isDirect = true;
+	}
+
+	/**
+	 * Create a reply consumer using direct reply-to if supported by the broker,
+	 * or on a new server-named queue otherwise.
+	 * 
+	 * @param publisher
+	 *            The publisher of requests.
+	 * @param provider
+	 *            The request provider.
+	 * @param allowDirect
+	 *            False to always use a server-named queue.
+	 * @throws IOException
+	 */
+	public static ReplyConsumer create(Publisher publisher, RequestProvider provider, boolean allowDirect)
+			throws IOException {
+		if (allowDirect && supportsDirectReplyTo(publisher.getChannel().getConnection())) {
+			return new ReplyConsumer(publisher, Constants.DIRECT_REPLY_TO, provider);
+		} else {
+			return new ReplyConsumer(publisher, provider);
+		}
+	}
+
+	/**
+	 * Check whether the broker of the given connection supports direct
+	 * reply-to.
+	 * 
+	 * <p>
+	 * Brokers advertising their capabilities are checked for the
+	 * <code>direct_reply_to</code> capability. Otherwise, the broker is
+	 * assumed to support it from RabbitMQ 3.4.0 onwards.
+	 * </p>
+	 * 
+	 * @param connection
+	 *            The connection.
+	 */
+	public static boolean supportsDirectReplyTo(Connection connection) {
+		Map<String, Object> serverProperties = connection.getServerProperties();
+		if (serverProperties == null)
+			return false;
+
+		// Check capabilities
+		Object capabilities = serverProperties.get("capabilities");
+		if (capabilities instanceof Map) {
+			Object capability = ((Map<?, ?>) capabilities).get("direct_reply_to");
+			if (capability != null)
+				return Boolean.TRUE.equals(capability);
+		}
+
+		// Check version
+		String version = SenderHeaders.getString(serverProperties, "version");
+		if (version == null)
+			return false;
+		String[] parts = version.split("\\.");
+		try {
+			int major = Integer.parseInt(parts[0]);
+			int minor = (parts.length > 1) ? Integer.parseInt(parts[1]) : 0;
+			return major > 3 || (major == 3 && minor >= 4);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Get the publisher of requests.
+	 */
+	public Publisher getPublisher() {
+		return publisher;
+	}
+
+	public RequestProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * Get the name of the queue on which replies are received.
+	 */
+	public String getReplyQueue() {
+		return getQueue();
+	}
+
+	/**
+	 * Check whether replies are received through direct reply-to.
+	 */
+	public boolean isDirect() {
+		return isDirect;
+	}
+
+	/**
+	 * Get the number of outstanding requests.
+	 */
+	public int getNbRequests() {
+		return requests.size();
+	}
+
+	/**
+	 * Register a new request.
+	 * 
+	 * @param requester
+	 *            The requester which handles the replies.
+	 * @return The correlation identifier of the request.
+	 */
+	String register(Requester<?> requester) {
+		String requestId = Integer.toString(provider.nextRequestId());
+		requests.put(requestId, requester);
+		return requestId;
+	}
+
+	/**
+	 * Unregister a request, ignoring any further replies.
+	 * 
+	 * @param requestId
+	 *            The correlation identifier of the request.
+	 */
+	void unregister(String requestId) {
+		requests.remove(requestId);
+	}
+
+	@Override
+	public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties props, byte[] body)
+			throws IOException {
+		String requestId = props.getCorrelationId();
+		if (requestId == null)
+			return;
+
+		Requester<?> requester = requests.get(requestId);
+		if (requester != null) {
+			requester.handleReply(requestId, props, body, this);
+		}
+	}
+
+	@Override
+	public void terminate() {
+		requests.clear();
+		if (isDirect) {
+			// Pseudo-queue cannot be deleted
+			try {
+				getChannel().basicCancel(getConsumerTag());
+			} catch (IOException e) {
+			} catch (ShutdownSignalException e) {
+			}
+		} else {
+			super.terminate();
+		}
+	}
+
+}
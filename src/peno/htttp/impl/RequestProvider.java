@@ -11,9 +11,30 @@ public class RequestProvider {
 
 	private final AtomicInteger counter = new AtomicInteger();
 
-	private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1, factory);
+	private final ScheduledExecutorService executor;
+	private final boolean isShared;
 	private static final ThreadFactory factory = new NamedThreadFactory("HTTTP-Request-%d");
 
+	/**
+	 * Create a request provider with its own timeout scheduler.
+	 */
+	public RequestProvider() {
+		this.executor = Executors.newScheduledThreadPool(1, factory);
+		this.isShared = false;
+	}
+
+	/**
+	 * Create a request provider which schedules timeouts on a shared
+	 * scheduler. The scheduler is not shut down when terminating.
+	 * 
+	 * @param executor
+	 *            The shared scheduler.
+	 */
+	public RequestProvider(ScheduledExecutorService executor) {
+		this.executor = executor;
+		this.isShared = true;
+	}
+
 	public int nextRequestId() {
 		return counter.incrementAndGet();
 	}
@@ -23,7 +44,7 @@ public class RequestProvider {
 	}
 
 	public void terminate() {
-		if (!executor.isShutdown()) {
+		if (!isShared && !executor.isShutdown()) {
 			executor.shutdown();
 		}
 	}
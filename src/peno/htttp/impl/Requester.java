@@ -5,20 +5,35 @@ import java.util.Date;
 import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 
+import peno.htttp.Constants;
+
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.AMQP.BasicProperties;
-import com.rabbitmq.client.Channel;
-
-public abstract class Requester extends Consumer {
-
-	private final RequestProvider provider;
 
-	private String requestId;
+/**
+ * Publishes a request and handles its replies.
+ * 
+ * <p>
+ * Replies are received through the {@link ReplyConsumer} of the client. A
+ * request is outstanding until it is cancelled or times out, and a new request
+ * cancels the previous one.
+ * </p>
+ */
+public abstract class Requester<M extends Message> {
+
+	private final ReplyConsumer replies;
+	private final M response;
+
+	private volatile String requestId;
 	private ScheduledFuture<?> timeoutFuture;
 
-	public Requester(Channel channel, RequestProvider provider) throws IOException {
-		super(channel);
-		this.provider = provider;
+	public Requester(ReplyConsumer replies, M response) {
+		this.replies = replies;
+		this.response = response;
+	}
+
+	protected Publisher getPublisher() {
+		return replies.getPublisher();
 	}
 
 	protected void request(String exchange, String topic, byte[] message) throws IOException {
@@ -26,23 +41,32 @@ public abstract class Requester extends Consumer {
 	}
 
 	protected void request(String exchange, String topic, byte[] message, int timeout) throws IOException {
+		request(exchange, topic, message, null, timeout);
+	}
+
+	protected void request(String exchange, String topic, byte[] message, Map<String, Object> headers, int timeout)
+			throws IOException {
 		// Cancel any running requests
 		cancelRequest();
 
 		// Create request
-		requestId = "" + provider.nextRequestId();
+		final String requestId = replies.register(this);
+		this.requestId = requestId;
 		AMQP.BasicProperties props = new AMQP.BasicProperties().builder().timestamp(new Date())
-				.contentType("text/plain").deliveryMode(1).expiration(timeout + "").correlationId(requestId)
-				.replyTo(getQueue()).build();
+				.contentType(Constants.CONTENT_TYPE_JSON).deliveryMode(1).priority(Constants.PRIORITY_CONTROL)
+				.expiration(timeout + "").correlationId(requestId).replyTo(replies.getReplyQueue())
+				.headers(headers).build();
 
 		// Publish
-		getChannel().basicPublish(exchange, topic, props, message);
+		getPublisher().publish(exchange, topic, props, message);
 
 		// Set timeout
 		if (timeout > 0) {
-			timeoutFuture = provider.scheduleTimeout(new Runnable() {
+			timeoutFuture = replies.getProvider().scheduleTimeout(new Runnable() {
 				@Override
 				public void run() {
+					// Stop receiving replies
+					replies.unregister(requestId);
 					handleTimeout();
 				}
 			}, timeout);
@@ -55,16 +79,25 @@ public abstract class Requester extends Consumer {
 			timeoutFuture.cancel(false);
 			timeoutFuture = null;
 		}
+		// Stop receiving replies
+		if (requestId != null) {
+			replies.unregister(requestId);
+			requestId = null;
+		}
 	}
 
-	@Override
-	public void handleMessage(String topic, Map<String, Object> message, BasicProperties props) {
-		if (props.getCorrelationId().equals(requestId)) {
-			handleResponse(message, props);
-		}
+	/**
+	 * Decode and handle a reply. Called by the reply consumer.
+	 */
+	void handleReply(String requestId, BasicProperties props, byte[] body, ReplyConsumer consumer)
+			throws IOException {
+		if (!requestId.equals(this.requestId))
+			return;
+		consumer.decode(response, props, body);
+		handleResponse(response, props);
 	}
 
-	protected abstract void handleResponse(Map<String, Object> message, BasicProperties props);
+	protected abstract void handleResponse(M message, BasicProperties props);
 
 	protected abstract void handleTimeout();
 
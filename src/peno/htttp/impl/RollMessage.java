@@ -0,0 +1,60 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import peno.htttp.Constants;
+
+/**
+ * A message carrying a player's roll for the player numbers.
+ */
+public class RollMessage extends Message {
+
+	private int roll;
+
+	public int getRoll() {
+		return roll;
+	}
+
+	public void setRoll(int roll) {
+		this.roll = roll;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		roll = 0;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.ROLL_NUMBER)) {
+			roll = in.nextInt();
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.ROLL_NUMBER).value(roll);
+	}
+
+	@Override
+	public boolean hasBinaryFormat() {
+		return true;
+	}
+
+	@Override
+	protected void readBinary(BinaryDecoder in) throws IOException {
+		super.readBinary(in);
+		roll = in.readInt();
+	}
+
+	@Override
+	protected void writeBinary(BinaryEncoder out) {
+		super.writeBinary(out);
+		out.writeInt(roll);
+	}
+
+}
@@ -0,0 +1,74 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import peno.htttp.Constants;
+
+/**
+ * A message announcing that a player has locked or unlocked a seesaw.
+ */
+public class SeesawMessage extends SpectatorMessage {
+
+	private int barcode;
+
+	/**
+	 * Create a message.
+	 * 
+	 * @param readDetails
+	 *            True if the player details should be read when decoding.
+	 */
+	public SeesawMessage(boolean readDetails) {
+		super(readDetails);
+	}
+
+	public SeesawMessage() {
+		super();
+	}
+
+	public int getBarcode() {
+		return barcode;
+	}
+
+	public void setBarcode(int barcode) {
+		this.barcode = barcode;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		barcode = 0;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.SEESAW_BARCODE)) {
+			barcode = in.nextInt();
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.SEESAW_BARCODE).value(barcode);
+	}
+
+	@Override
+	public boolean hasBinaryFormat() {
+		return true;
+	}
+
+	@Override
+	protected void readBinary(BinaryDecoder in) throws IOException {
+		super.readBinary(in);
+		barcode = (int) in.readZigZag();
+	}
+
+	@Override
+	protected void writeBinary(BinaryEncoder out) {
+		super.writeBinary(out);
+		out.writeZigZag(barcode);
+	}
+
+}
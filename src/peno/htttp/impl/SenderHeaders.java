@@ -0,0 +1,102 @@
+package peno.htttp.impl;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import peno.htttp.Constants;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.LongString;
+
+/**
+ * Message headers identifying the sender of a message.
+ * 
+ * <p>
+ * The client identifier, player identifier, player number and protocol
+ * version of the sender are carried in the message headers, so consumers can
+ * filter deliveries without decoding the message body. Messages from clients
+ * which do not send these headers must still be filtered on their body.
+ * </p>
+ */
+public class SenderHeaders {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private SenderHeaders() {
+	}
+
+	/**
+	 * Create the sender headers.
+	 * 
+	 * @param clientID
+	 *            The client identifier of the sender.
+	 * @param playerID
+	 *            The player identifier of the sender.
+	 * @param playerNumber
+	 *            The player number of the sender, or zero if not determined.
+	 * @return An unmodifiable map of headers.
+	 */
+	public static Map<String, Object> create(String clientID, String playerID, int playerNumber) {
+		Map<String, Object> headers = new HashMap<String, Object>();
+		headers.put(Constants.HEADER_VERSION, Constants.PROTOCOL_VERSION);
+		headers.put(Constants.HEADER_CLIENT_ID, clientID);
+		headers.put(Constants.HEADER_PLAYER_ID, playerID);
+		if (playerNumber > 0) {
+			headers.put(Constants.HEADER_PLAYER_NUMBER, playerNumber);
+		}
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * Get the client identifier of the sender.
+	 * 
+	 * @return The client identifier, or null if not present.
+	 */
+	public static String getClientID(BasicProperties props) {
+		return getString(props.getHeaders(), Constants.HEADER_CLIENT_ID);
+	}
+
+	/**
+	 * Get the player identifier of the sender.
+	 * 
+	 * @return The player identifier, or null if not present.
+	 */
+	public static String getPlayerID(BasicProperties props) {
+		return getString(props.getHeaders(), Constants.HEADER_PLAYER_ID);
+	}
+
+	/**
+	 * Get the player number of the sender.
+	 * 
+	 * @return The player number, or zero if not present.
+	 */
+	public static int getPlayerNumber(BasicProperties props) {
+		return getPlayerNumber(props.getHeaders());
+	}
+
+	/**
+	 * Get the player number from the given headers.
+	 * 
+	 * @return The player number, or zero if not present.
+	 */
+	public static int getPlayerNumber(Map<String, Object> headers) {
+		if (headers == null)
+			return 0;
+		Object value = headers.get(Constants.HEADER_PLAYER_NUMBER);
+		return (value instanceof Number) ? ((Number) value).intValue() : 0;
+	}
+
+	static String getString(Map<String, Object> headers, String name) {
+		if (headers == null)
+			return null;
+		Object value = headers.get(name);
+		if (value instanceof LongString) {
+			// Received strings are wrapped
+			return new String(((LongString) value).getBytes(), UTF8);
+		}
+		return (value == null) ? null : value.toString();
+	}
+
+}
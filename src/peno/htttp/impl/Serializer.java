@@ -0,0 +1,74 @@
+package peno.htttp.impl;
+
+import peno.htttp.Constants;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Serializes messages into payloads for publishing.
+ * 
+ * <p>
+ * Messages are written into the pooled buffer of the encoder of the calling
+ * thread. The returned payloads are copied out of that buffer, so they can be
+ * handed to another thread for publishing.
+ * </p>
+ */
+public class Serializer {
+
+	private Serializer() {
+	}
+
+	/**
+	 * Serialize a message and set the matching content type and encoding.
+	 * 
+	 * @param message
+	 *            The message.
+	 * @param binary
+	 *            True to use the binary format, if the message has one.
+	 * @param compressionThreshold
+	 *            The payload size above which payloads are compressed, or a
+	 *            negative number to never compress.
+	 * @param props
+	 *            The properties of the message, which receive the content type
+	 *            and encoding.
+	 * @return The payload.
+	 */
+	public static byte[] serialize(Message message, boolean binary, int compressionThreshold,
+			AMQP.BasicProperties.Builder props) {
+		// Serialize message into pooled buffer
+		OutputBuffer out;
+		if (binary && message.hasBinaryFormat()) {
+			props.contentType(Constants.CONTENT_TYPE_BINARY);
+			BinaryEncoder encoder = BinaryEncoder.get();
+			message.write(encoder);
+			out = encoder.getOutput();
+		} else {
+			props.contentType(Constants.CONTENT_TYPE_JSON);
+			JSONEncoder encoder = JSONEncoder.get();
+			message.write(encoder);
+			out = encoder.getOutput();
+		}
+
+		// Compress large payloads
+		if (compressionThreshold >= 0 && out.size() > compressionThreshold) {
+			props.contentEncoding(Constants.CONTENT_ENCODING_DEFLATE);
+			return Compressor.get().deflate(out.array(), 0, out.size());
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Serialize a message as JSON, without compression.
+	 * 
+	 * @param message
+	 *            The message.
+	 * @return The payload.
+	 */
+	public static byte[] serializeToJSON(Message message) {
+		// Serialize message as JSON object into pooled buffer
+		JSONEncoder out = JSONEncoder.get();
+		message.write(out);
+		return out.toByteArray();
+	}
+
+}
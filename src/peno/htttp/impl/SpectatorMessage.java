@@ -0,0 +1,195 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import peno.htttp.Constants;
+import peno.htttp.PlayerDetails;
+import peno.htttp.PlayerType;
+
+/**
+ * A message which is also meant for spectators.
+ * 
+ * <p>
+ * Spectator messages carry the details and the number of the sending player,
+ * so spectators can track players without joining the game. The rolled topic
+ * uses this class directly.
+ * </p>
+ * 
+ * <p>
+ * Consumers which do not need the player details can construct the message
+ * without reading them, in which case they are skipped while decoding. Read
+ * details are shared with previous deliveries of the same player as long as
+ * they remain unchanged.
+ * </p>
+ */
+public class SpectatorMessage extends Message {
+
+	/**
+	 * Maximum amount of cached player details.
+	 */
+	private static final int MAX_CACHED_DETAILS = 64;
+	private static final PlayerType[] PLAYER_TYPES = PlayerType.values();
+
+	private final boolean readDetails;
+	private final Map<String, PlayerDetails> detailsCache = new HashMap<String, PlayerDetails>();
+
+	private PlayerDetails playerDetails;
+	private int playerNumber;
+
+	/**
+	 * Create a spectator message.
+	 * 
+	 * @param readDetails
+	 *            True if the player details should be read when decoding.
+	 */
+	public SpectatorMessage(boolean readDetails) {
+		this.readDetails = readDetails;
+	}
+
+	public SpectatorMessage() {
+		this(true);
+	}
+
+	public PlayerDetails getPlayerDetails() {
+		return playerDetails;
+	}
+
+	public void setPlayerDetails(PlayerDetails playerDetails) {
+		this.playerDetails = playerDetails;
+	}
+
+	public int getPlayerNumber() {
+		return playerNumber;
+	}
+
+	public void setPlayerNumber(int playerNumber) {
+		this.playerNumber = playerNumber;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		playerDetails = null;
+		playerNumber = 0;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.PLAYER_DETAILS) && readDetails) {
+			playerDetails = readPlayerDetails(in);
+			return true;
+		} else if (name.equals(Constants.PLAYER_NUMBER)) {
+			playerNumber = in.nextInt();
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.PLAYER_DETAILS);
+		writePlayerDetails(out, playerDetails);
+		out.name(Constants.PLAYER_NUMBER).value(playerNumber);
+	}
+
+	private PlayerDetails readPlayerDetails(JSONDecoder in) throws IOException {
+		String playerID = null;
+		PlayerType type = null;
+		double width = 0d;
+		double height = 0d;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			String name = in.nextName();
+			if (in.nextNull())
+				continue;
+
+			if (name.equals(Constants.PLAYER_ID)) {
+				playerID = in.nextString();
+			} else if (name.equals(Constants.PLAYER_TYPE)) {
+				type = readPlayerType(in.nextString());
+			} else if (name.equals(Constants.PLAYER_WIDTH)) {
+				width = in.nextDouble();
+			} else if (name.equals(Constants.PLAYER_HEIGHT)) {
+				height = in.nextDouble();
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+
+		return getPlayerDetails(playerID, type, width, height);
+	}
+
+	private static PlayerType readPlayerType(String name) throws IOException {
+		for (PlayerType type : PLAYER_TYPES) {
+			if (type.name().equals(name))
+				return type;
+		}
+		throw new IOException("Unknown player type: " + name);
+	}
+
+	private static PlayerType readPlayerType(int ordinal) throws IOException {
+		if (ordinal >= PLAYER_TYPES.length) {
+			throw new IOException("Unknown player type: " + ordinal);
+		}
+		return PLAYER_TYPES[ordinal];
+	}
+
+	/**
+	 * Get the details with the given fields, sharing the previously read
+	 * details of the same player if they are equal.
+	 */
+	private PlayerDetails getPlayerDetails(String playerID, PlayerType type, double width, double height) {
+		PlayerDetails details = detailsCache.get(playerID);
+		if (details != null && details.getType() == type && details.getWidth() == width
+				&& details.getHeight() == height) {
+			return details;
+		}
+
+		details = new PlayerDetails(playerID, type, width, height);
+		if (playerID != null) {
+			if (detailsCache.size() >= MAX_CACHED_DETAILS) {
+				detailsCache.clear();
+			}
+			detailsCache.put(playerID, details);
+		}
+		return details;
+	}
+
+	private static void writePlayerDetails(JSONEncoder out, PlayerDetails playerDetails) {
+		out.beginObject();
+		out.name(Constants.PLAYER_ID).value(playerDetails.getPlayerID());
+		out.name(Constants.PLAYER_TYPE).value(playerDetails.getType().name());
+		out.name(Constants.PLAYER_WIDTH).value(playerDetails.getWidth());
+		out.name(Constants.PLAYER_HEIGHT).value(playerDetails.getHeight());
+		out.endObject();
+	}
+
+	@Override
+	protected void readBinary(BinaryDecoder in) throws IOException {
+		super.readBinary(in);
+		String playerID = in.readString();
+		PlayerType type = readPlayerType(in.readByte());
+		double width = in.readDouble();
+		double height = in.readDouble();
+		if (readDetails) {
+			playerDetails = getPlayerDetails(playerID, type, width, height);
+		}
+		playerNumber = (int) in.readVarint();
+	}
+
+	@Override
+	protected void writeBinary(BinaryEncoder out) {
+		super.writeBinary(out);
+		out.writeString(playerDetails.getPlayerID());
+		out.writeByte(playerDetails.getType().ordinal());
+		out.writeDouble(playerDetails.getWidth());
+		out.writeDouble(playerDetails.getHeight());
+		out.writeVarint(playerNumber);
+	}
+
+}
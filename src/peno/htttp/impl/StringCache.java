@@ -0,0 +1,104 @@
+package peno.htttp.impl;
+
+import java.nio.charset.Charset;
+
+import peno.htttp.Constants;
+
+/**
+ * A small cache mapping UTF-8 encoded byte sequences to their decoded strings.
+ * 
+ * <p>
+ * Field names, player identifiers and enumeration names are repeated in almost
+ * every message. Looking them up in this cache avoids allocating a new string
+ * for each occurrence. The cache is direct-mapped: a colliding entry simply
+ * replaces the previous one.
+ * </p>
+ * 
+ * <p>
+ * A string cache is not thread-safe.
+ * </p>
+ */
+public class StringCache {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int SIZE = 256;
+	private static final int MAX_LENGTH = 64;
+
+	/**
+	 * Strings which are known up front.
+	 */
+	private static final String[] KNOWN = { Constants.PLAYER_ID, Constants.CLIENT_ID, Constants.PLAYER_DETAILS,
+			Constants.PLAYER_NUMBER, Constants.PLAYER_TYPE, Constants.PLAYER_WIDTH, Constants.PLAYER_HEIGHT,
+			Constants.PLAYER_FOUND_OBJECT, Constants.TEAM_NUMBER, Constants.SEESAW_BARCODE, Constants.IS_JOINED,
+			Constants.IS_READY, Constants.GAME_STATE, Constants.MISSING_PLAYERS, Constants.PLAYER_NUMBERS,
+			Constants.DISCONNECT_REASON, Constants.ROLL_NUMBER, Constants.UPDATE_X, Constants.UPDATE_Y,
+			Constants.UPDATE_ANGLE, Constants.TILES, Constants.VOTE_RESULT };
+
+	private final byte[][] keys = new byte[SIZE][];
+	private final String[] values = new String[SIZE];
+
+	public StringCache() {
+		for (String value : KNOWN) {
+			put(value);
+		}
+	}
+
+	/**
+	 * Get the string for the given UTF-8 encoded bytes.
+	 * 
+	 * @param bytes
+	 *            The input buffer.
+	 * @param offset
+	 *            The offset of the first byte.
+	 * @param length
+	 *            The amount of bytes.
+	 */
+	public String get(byte[] bytes, int offset, int length) {
+		if (length > MAX_LENGTH) {
+			return new String(bytes, offset, length, UTF8);
+		}
+
+		int slot = hash(bytes, offset, length) & (SIZE - 1);
+		byte[] key = keys[slot];
+		if (key != null && equals(key, bytes, offset, length)) {
+			return values[slot];
+		}
+
+		// Miss, replace entry
+		key = new byte[length];
+		System.arraycopy(bytes, offset, key, 0, length);
+		String value = new String(key, UTF8);
+		keys[slot] = key;
+		values[slot] = value;
+		return value;
+	}
+
+	private void put(String value) {
+		byte[] key = value.getBytes(UTF8);
+		int slot = hash(key, 0, key.length) & (SIZE - 1);
+		keys[slot] = key;
+		values[slot] = value;
+	}
+
+	private static int hash(byte[] bytes, int offset, int length) {
+		// FNV-1a
+		int hash = 0x811C9DC5;
+		for (int i = offset; i < offset + length; i++) {
+			hash ^= bytes[i];
+			hash *= 0x01000193;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(byte[] key, byte[] bytes, int offset, int length) {
+		if (key.length != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (key[i] != bytes[offset + i])
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,270 @@
+package peno.htttp.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An executor which runs tasks on a fixed set of {@link EventLoop stripes}.
+ * 
+ * <p>
+ * Tasks are assigned to a stripe by key, so tasks with the same key and lane
+ * run one by one in submission order, while tasks with different keys can run
+ * in parallel. Fenced tasks run after all previously submitted control tasks
+ * on all stripes, and before any later task. Since fences are queued in the
+ * control lane, pending telemetry does not hold them up. Stripes waiting for a
+ * fence are suspended rather than blocked, so stripes can share a small
+ * executor.
+ * </p>
+ * 
+ * <p>
+ * The capacity of the executor is divided over its stripes, each of which
+ * handles overload as described in {@link EventLoop}.
+ * </p>
+ */
+public class StripedExecutor {
+
+	private final EventLoop[] stripes;
+	private final Lock fenceLock = new ReentrantLock();
+
+	/**
+	 * Create a striped executor with a thread per stripe.
+	 * 
+	 * @param nbStripes
+	 *            The number of stripes.
+	 * @param threadFactory
+	 *            The factory for the stripe threads.
+	 */
+	public StripedExecutor(int nbStripes, ThreadFactory threadFactory) {
+		checkStripes(nbStripes);
+		this.stripes = new EventLoop[nbStripes];
+		for (int i = 0; i < nbStripes; i++) {
+			stripes[i] = new EventLoop(threadFactory);
+		}
+	}
+
+	/**
+	 * Create a striped executor with all stripes drained on a shared executor.
+	 * 
+	 * @param nbStripes
+	 *            The number of stripes.
+	 * @param executor
+	 *            The shared executor.
+	 */
+	public StripedExecutor(int nbStripes, Executor executor) {
+		checkStripes(nbStripes);
+		this.stripes = new EventLoop[nbStripes];
+		for (int i = 0; i < nbStripes; i++) {
+			stripes[i] = new EventLoop(executor);
+		}
+	}
+
+	private static void checkStripes(int nbStripes) {
+		if (nbStripes < 1) {
+			throw new IllegalArgumentException("Invalid number of stripes: " + nbStripes);
+		}
+	}
+
+	public int getNbStripes() {
+		return stripes.length;
+	}
+
+	/**
+	 * Run a task in the control lane of the stripe of the given key.
+	 * 
+	 * @param key
+	 *            The key, or null for the first stripe.
+	 * @param task
+	 *            The task.
+	 */
+	public void execute(Object key, Runnable task) {
+		stripes[getStripe(key)].execute(task);
+	}
+
+	/**
+	 * Run a task in the telemetry lane of the stripe of the given key.
+	 * 
+	 * @param key
+	 *            The key, or null for the first stripe.
+	 * @param task
+	 *            The task.
+	 * @see EventLoop#executeTelemetry(Runnable)
+	 */
+	public void executeTelemetry(Object key, Runnable task) {
+		stripes[getStripe(key)].executeTelemetry(task);
+	}
+
+	/**
+	 * Run a task on the stripe of the given key, replacing the pending task with
+	 * the same key and state.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param state
+	 *            The state, or null.
+	 * @param task
+	 *            The task.
+	 * @see EventLoop#executeLatest(Object, Object, Runnable)
+	 */
+	public void executeLatest(Object key, Object state, Runnable task) {
+		stripes[getStripe(key)].executeLatest(key, state, task);
+	}
+
+	/**
+	 * Set whether tasks with the same key and state are always replaced, or
+	 * only when their stripe is full.
+	 * 
+	 * @param conflating
+	 *            True to always replace pending tasks.
+	 */
+	public void setConflating(boolean conflating) {
+		for (EventLoop stripe : stripes) {
+			stripe.setConflating(conflating);
+		}
+	}
+
+	/**
+	 * Run a task after all previously submitted control tasks have completed,
+	 * holding back all later tasks until it has completed.
+	 * 
+	 * @param task
+	 *            The task.
+	 */
+	public void executeFenced(Runnable task) {
+		// Fences must be queued in the same order on every stripe
+		fenceLock.lock();
+		try {
+			Fence fence = new Fence(task, stripes);
+			for (EventLoop stripe : stripes) {
+				stripe.execute(fence.arrival(stripe));
+			}
+		} finally {
+			fenceLock.unlock();
+		}
+	}
+
+	/**
+	 * Get the number of queued tasks which have not yet completed, over all
+	 * stripes.
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (EventLoop stripe : stripes) {
+			depth += stripe.getQueueDepth();
+		}
+		return depth;
+	}
+
+	/**
+	 * Set the maximum number of queued tasks, over all stripes.
+	 * 
+	 * @param capacity
+	 *            The capacity, or zero for unbounded queues.
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		// Round up so every stripe has room for at least one task
+		int stripeCapacity = (capacity + stripes.length - 1) / stripes.length;
+		for (EventLoop stripe : stripes) {
+			stripe.setCapacity(stripeCapacity);
+		}
+	}
+
+	/**
+	 * Get the number of tasks which were replaced by a newer task with the same
+	 * key, over all stripes.
+	 */
+	public long getCoalescedCount() {
+		long count = 0;
+		for (EventLoop stripe : stripes) {
+			count += stripe.getCoalescedCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of tasks which were dropped because their stripe was full.
+	 */
+	public long getDroppedCount() {
+		long count = 0;
+		for (EventLoop stripe : stripes) {
+			count += stripe.getDroppedCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of tasks which were queued beyond the capacity of their
+	 * stripe.
+	 */
+	public long getOverflowCount() {
+		long count = 0;
+		for (EventLoop stripe : stripes) {
+			count += stripe.getOverflowCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Get the index of the stripe on which tasks with the given key are run.
+	 * 
+	 * @param key
+	 *            The key, or null for the first stripe.
+	 */
+	public int getStripe(Object key) {
+		if (key == null)
+			return 0;
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return (hash & Integer.MAX_VALUE) % stripes.length;
+	}
+
+	/**
+	 * Runs a task once it has been reached on all stripes.
+	 */
+	private static class Fence {
+
+		private final Runnable task;
+		private final EventLoop[] stripes;
+		private final AtomicInteger remaining;
+
+		public Fence(Runnable task, EventLoop[] stripes) {
+			this.task = task;
+			this.stripes = stripes;
+			this.remaining = new AtomicInteger(stripes.length);
+		}
+
+		public Runnable arrival(final EventLoop stripe) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					arrive(stripe);
+				}
+			};
+		}
+
+		private void arrive(EventLoop stripe) {
+			// Hold back this stripe, before the last stripe can resume it
+			stripe.suspend();
+			if (remaining.decrementAndGet() == 0) {
+				// Last stripe to arrive runs the task
+				stripe.resume();
+				try {
+					task.run();
+				} finally {
+					for (EventLoop other : stripes) {
+						if (other != stripe) {
+							other.resume();
+						}
+					}
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,168 @@
+package peno.htttp.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A dictionary assigning small integer codes to tile tokens.
+ * 
+ * <p>
+ * Codes are assigned in order, the first time a token is seen. The sender
+ * defines each new code inline, so the receiver builds up the same dictionary
+ * while decoding. A dictionary lives for one session, identified by a non-zero
+ * session number. Receivers start over whenever the session number of the
+ * sender changes. Session number zero is reserved for dictionaries which only
+ * live for a single message.
+ * </p>
+ * 
+ * <p>
+ * Every message carries the session number and the first code it defines, so
+ * receivers notice when they missed definitions of an earlier message.
+ * </p>
+ * 
+ * <p>
+ * A tile dictionary is not thread-safe.
+ * </p>
+ */
+public class TileDictionary {
+
+	/**
+	 * Session number of a dictionary which is cleared for every message.
+	 */
+	public static final int MESSAGE_SESSION = 0;
+
+	private static final Random random = new Random();
+
+	private final Map<String, Integer> codes = new HashMap<String, Integer>();
+	private String[] tokens = new String[16];
+	private int size;
+	private int session;
+
+	/**
+	 * Create a dictionary for the given session.
+	 * 
+	 * @param session
+	 *            The session number.
+	 */
+	public TileDictionary(int session) {
+		this.session = session;
+	}
+
+	/**
+	 * Create a dictionary for a new random session.
+	 */
+	public TileDictionary() {
+		this(nextSession(random.nextInt()));
+	}
+
+	public int getSession() {
+		return session;
+	}
+
+	/**
+	 * Check whether this dictionary only lives for a single message.
+	 */
+	public boolean isMessageScoped() {
+		return session == MESSAGE_SESSION;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Start a new session, forgetting all assigned codes.
+	 */
+	public void reset() {
+		session = nextSession(session);
+		clear();
+	}
+
+	/**
+	 * Switch to the given session of the sender, forgetting all assigned
+	 * codes if the session changed.
+	 * 
+	 * @param session
+	 *            The session number.
+	 */
+	public void setSession(int session) {
+		if (this.session != session) {
+			this.session = session;
+			clear();
+		}
+	}
+
+	/**
+	 * Forget all assigned codes.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			tokens[i] = null;
+		}
+		codes.clear();
+		size = 0;
+	}
+
+	/**
+	 * Forget all codes from the given code onwards.
+	 * 
+	 * @param size
+	 *            The number of codes to keep.
+	 */
+	public void truncate(int size) {
+		for (int i = size; i < this.size; i++) {
+			codes.remove(tokens[i]);
+			tokens[i] = null;
+		}
+		this.size = Math.min(this.size, size);
+	}
+
+	/**
+	 * Get the code of a token.
+	 * 
+	 * @param token
+	 *            The token.
+	 * @return The code, or -1 if not yet assigned.
+	 */
+	public int getCode(String token) {
+		Integer code = codes.get(token);
+		return (code == null) ? -1 : code;
+	}
+
+	/**
+	 * Get the token with the given code.
+	 * 
+	 * @param code
+	 *            The code.
+	 * @return The token, or null if not yet assigned.
+	 */
+	public String getToken(int code) {
+		return (code >= 0 && code < size) ? tokens[code] : null;
+	}
+
+	/**
+	 * Assign the next code to a token.
+	 * 
+	 * @param token
+	 *            The token.
+	 * @return The assigned code.
+	 */
+	public int define(String token) {
+		if (size == tokens.length) {
+			String[] newTokens = new String[size * 2];
+			System.arraycopy(tokens, 0, newTokens, 0, size);
+			tokens = newTokens;
+		}
+		int code = size++;
+		tokens[code] = token;
+		codes.put(token, code);
+		return code;
+	}
+
+	private static int nextSession(int session) {
+		session++;
+		return (session == MESSAGE_SESSION) ? session + 1 : session;
+	}
+
+}
@@ -0,0 +1,276 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import peno.htttp.Constants;
+import peno.htttp.Tile;
+import peno.htttp.TileBatch;
+
+/**
+ * A message carrying maze tiles for the team partner.
+ * 
+ * <p>
+ * Tiles are stored in primitive arrays, indexed from zero up to the number of
+ * tiles.
+ * </p>
+ * 
+ * <p>
+ * In the binary format, tile coordinates are written as differences with the
+ * previous tile, which are small when tiles are sent in maze order. Tile
+ * tokens are replaced by codes from a {@link TileDictionary}: the first
+ * occurrence of a token is written in full after its new code, later
+ * occurrences only write the code. By default, the dictionary only lives for
+ * a single message. Senders can share a dictionary over multiple messages, so
+ * tokens are only written once per session.
+ * </p>
+ * 
+ * <p>
+ * Each message starts with the session number and the first code it defines.
+ * When a receiver missed a message of the session, the first code is beyond
+ * the end of its dictionary. Such a message is decoded without resolving the
+ * missing codes and is {@link #isOutOfSync() out of sync}, after which the
+ * receiver should ask the sender to start a new session.
+ * </p>
+ */
+public class TilesMessage extends Message {
+
+	private static final long[] NO_COORDINATES = new long[0];
+	private static final String[] NO_TOKENS = new String[0];
+
+	private int nbTiles;
+	private long[] tileX = NO_COORDINATES;
+	private long[] tileY = NO_COORDINATES;
+	private String[] tileTokens = NO_TOKENS;
+
+	private TileDictionary dictionary = new TileDictionary(TileDictionary.MESSAGE_SESSION);
+	private boolean isOutOfSync = false;
+
+	public TileDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Set the dictionary for encoding tile tokens.
+	 * 
+	 * <p>
+	 * A shared dictionary must only be used by one message at a time, and
+	 * encoded messages must be sent in order.
+	 * </p>
+	 * 
+	 * @param dictionary
+	 *            The dictionary.
+	 */
+	public void setDictionary(TileDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Check whether the last decoded message referred to token codes which
+	 * were defined in a message that was never received.
+	 * 
+	 * <p>
+	 * The tokens of such a message cannot be trusted, and the dictionary stays
+	 * out of sync until the sender starts a new session.
+	 * </p>
+	 */
+	public boolean isOutOfSync() {
+		return isOutOfSync;
+	}
+
+	public int getNbTiles() {
+		return nbTiles;
+	}
+
+	public long getTileX(int index) {
+		return tileX[index];
+	}
+
+	public long getTileY(int index) {
+		return tileY[index];
+	}
+
+	public String getTileToken(int index) {
+		return tileTokens[index];
+	}
+
+	/**
+	 * Take the tiles out of this message as a tile batch.
+	 * 
+	 * <p>
+	 * The batch takes over the arrays of this message, which is left without
+	 * tiles. This allows the batch to be handed off while the message is
+	 * reused for the next delivery.
+	 * </p>
+	 */
+	public TileBatch takeTiles() {
+		TileBatch tiles = new TileBatch(nbTiles, tileX, tileY, tileTokens);
+		nbTiles = 0;
+		tileX = tileY = NO_COORDINATES;
+		tileTokens = NO_TOKENS;
+		return tiles;
+	}
+
+	public void setTiles(Collection<Tile> tiles) {
+		clearTiles();
+		ensureTiles(tiles.size());
+		if (tiles instanceof TileBatch) {
+			// Copy without creating tile objects
+			TileBatch batch = (TileBatch) tiles;
+			for (int i = 0; i < batch.size(); i++) {
+				addTile(batch.getX(i), batch.getY(i), batch.getToken(i));
+			}
+		} else {
+			for (Tile tile : tiles) {
+				addTile(tile.getX(), tile.getY(), tile.getToken());
+			}
+		}
+	}
+
+	public void addTile(long x, long y, String token) {
+		ensureTiles(nbTiles + 1);
+		tileX[nbTiles] = x;
+		tileY[nbTiles] = y;
+		tileTokens[nbTiles] = token;
+		nbTiles++;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		clearTiles();
+		isOutOfSync = false;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.TILES)) {
+			in.beginArray();
+			while (in.hasNext()) {
+				in.beginArray();
+				in.hasNext();
+				long x = in.nextLong();
+				in.hasNext();
+				long y = in.nextLong();
+				in.hasNext();
+				String token = in.nextString();
+				in.endArray();
+				addTile(x, y, token);
+			}
+			in.endArray();
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.TILES).beginArray();
+		for (int i = 0; i < nbTiles; i++) {
+			out.beginArray().value(tileX[i]).value(tileY[i]).value(tileTokens[i]).endArray();
+		}
+		out.endArray();
+	}
+
+	private void clearTiles() {
+		for (int i = 0; i < nbTiles; i++) {
+			tileTokens[i] = null;
+		}
+		nbTiles = 0;
+	}
+
+	private void ensureTiles(int capacity) {
+		if (tileX.length < capacity) {
+			int newCapacity = Math.max(capacity, tileX.length * 2);
+			long[] newX = new long[newCapacity];
+			long[] newY = new long[newCapacity];
+			String[] newTokens = new String[newCapacity];
+			System.arraycopy(tileX, 0, newX, 0, nbTiles);
+			System.arraycopy(tileY, 0, newY, 0, nbTiles);
+			System.arraycopy(tileTokens, 0, newTokens, 0, nbTiles);
+			tileX = newX;
+			tileY = newY;
+			tileTokens = newTokens;
+		}
+	}
+
+	@Override
+	public boolean hasBinaryFormat() {
+		return true;
+	}
+
+	@Override
+	protected void readBinary(BinaryDecoder in) throws IOException {
+		super.readBinary(in);
+		dictionary.setSession((int) in.readVarint());
+		if (dictionary.isMessageScoped()) {
+			dictionary.clear();
+		}
+		int firstCode = (int) in.readVarint();
+		if (firstCode < 0) {
+			throw new IOException("Invalid token code: " + firstCode);
+		}
+		if (firstCode < dictionary.size()) {
+			// Sender defines these codes again
+			dictionary.truncate(firstCode);
+		}
+		// Missed definitions of an earlier message
+		isOutOfSync = (firstCode != dictionary.size());
+
+		// Every tile takes at least three bytes
+		int nbTiles = in.readCount(3);
+		ensureTiles(nbTiles);
+		long x = 0l, y = 0l;
+		int nextCode = firstCode;
+		for (int i = 0; i < nbTiles; i++) {
+			x += in.readZigZag();
+			y += in.readZigZag();
+			int code = (int) in.readVarint();
+			String token;
+			if (code == nextCode) {
+				// New token
+				token = in.readString();
+				nextCode++;
+				if (!isOutOfSync) {
+					dictionary.define(token);
+				}
+			} else {
+				token = dictionary.getToken(code);
+				if (token == null && !isOutOfSync) {
+					throw new IOException("Unknown token code: " + code);
+				}
+			}
+			addTile(x, y, token);
+		}
+	}
+
+	@Override
+	protected void writeBinary(BinaryEncoder out) {
+		super.writeBinary(out);
+		out.writeVarint(dictionary.getSession() & 0xFFFFFFFFl);
+		if (dictionary.isMessageScoped()) {
+			dictionary.clear();
+		}
+		out.writeVarint(dictionary.size());
+
+		out.writeVarint(nbTiles);
+		long x = 0l, y = 0l;
+		for (int i = 0; i < nbTiles; i++) {
+			out.writeZigZag(tileX[i] - x).writeZigZag(tileY[i] - y);
+			x = tileX[i];
+			y = tileY[i];
+
+			String token = tileTokens[i];
+			int code = dictionary.getCode(token);
+			if (code < 0) {
+				// New token
+				code = dictionary.define(token);
+				out.writeVarint(code).writeString(token);
+			} else {
+				out.writeVarint(code);
+			}
+		}
+	}
+
+}
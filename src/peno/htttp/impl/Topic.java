@@ -0,0 +1,131 @@
+package peno.htttp.impl;
+
+import peno.htttp.Constants;
+
+/**
+ * The fixed topics of game broadcasts.
+ * 
+ * <p>
+ * Routing keys are resolved to topics through a perfect hash over their
+ * length and first and last characters, followed by a single comparison with
+ * the name of the candidate topic. This avoids comparing against every known
+ * topic on each delivery.
+ * </p>
+ */
+public enum Topic {
+
+	JOIN(Constants.JOIN),
+	JOINED(Constants.JOINED),
+	DISCONNECT(Constants.DISCONNECT),
+	ROLL(Constants.ROLL),
+	ROLLED(Constants.ROLLED),
+	READY(Constants.READY),
+	START(Constants.START),
+	STOP(Constants.STOP),
+	PAUSE(Constants.PAUSE),
+	WIN(Constants.WIN),
+	FOUND_OBJECT(Constants.FOUND_OBJECT),
+	HEARTBEAT(Constants.HEARTBEAT, Constants.PRIORITY_TELEMETRY),
+	UPDATE(Constants.UPDATE, Constants.PRIORITY_TELEMETRY),
+	SEESAW_LOCK(Constants.SEESAW_LOCK),
+	SEESAW_UNLOCK(Constants.SEESAW_UNLOCK);
+
+	private final String name;
+	private final int priority;
+
+	private Topic(String name, int priority) {
+		this.name = name;
+		this.priority = priority;
+	}
+
+	private Topic(String name) {
+		this(name, Constants.PRIORITY_CONTROL);
+	}
+
+	/**
+	 * Get the routing key of this topic.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the message priority of this topic.
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/*
+	 * Perfect hash table
+	 */
+	private static final int MAX_TABLE_SIZE = 1024;
+	private static int multiplier;
+	private static int mask;
+	private static Topic[] table;
+
+	static {
+		Topic[] topics = values();
+		search: for (int size = Integer.highestOneBit(topics.length) * 2; size <= MAX_TABLE_SIZE; size *= 2) {
+			multipliers: for (int m = 1; m < size; m += 2) {
+				Topic[] candidate = new Topic[size];
+				for (Topic topic : topics) {
+					int index = hash(topic.name, m) & (size - 1);
+					if (candidate[index] != null)
+						continue multipliers;
+					candidate[index] = topic;
+				}
+				multiplier = m;
+				mask = size - 1;
+				table = candidate;
+				break search;
+			}
+		}
+		if (table == null) {
+			throw new IllegalStateException("No perfect hash for topics.");
+		}
+	}
+
+	private static int hash(String name, int multiplier) {
+		int length = name.length();
+		return (name.charAt(0) * multiplier + name.charAt(length - 1)) * 31 + length;
+	}
+
+	/**
+	 * Get the message priority for the given routing key.
+	 * 
+	 * <p>
+	 * Fixed topics carrying telemetry, such as heart beats and position
+	 * updates, have a lower priority than all other messages.
+	 * </p>
+	 * 
+	 * @param name
+	 *            The routing key.
+	 */
+	public static int priorityOf(String name) {
+		Topic topic = forName(name);
+		return (topic != null) ? topic.getPriority() : Constants.PRIORITY_CONTROL;
+	}
+
+	/**
+	 * Get the topic with the given routing key.
+	 * 
+	 * @param name
+	 *            The routing key.
+	 * @return The topic, or null if the routing key is not a fixed topic.
+	 */
+	public static Topic forName(String name) {
+		if (name == null || name.isEmpty())
+			return null;
+		Topic topic = table[hash(name, multiplier) & mask];
+		if (topic != null && topic.name.equals(name))
+			return topic;
+		return null;
+	}
+
+}
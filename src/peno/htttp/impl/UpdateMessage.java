@@ -0,0 +1,115 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import peno.htttp.Constants;
+
+/**
+ * A message carrying the updated state of a player.
+ */
+public class UpdateMessage extends SpectatorMessage {
+
+	private long x;
+	private long y;
+	private double angle;
+	private boolean foundObject;
+
+	/**
+	 * Create a message.
+	 * 
+	 * @param readDetails
+	 *            True if the player details should be read when decoding.
+	 */
+	public UpdateMessage(boolean readDetails) {
+		super(readDetails);
+	}
+
+	public UpdateMessage() {
+		super();
+	}
+
+	public long getX() {
+		return x;
+	}
+
+	public long getY() {
+		return y;
+	}
+
+	public double getAngle() {
+		return angle;
+	}
+
+	public void setPosition(long x, long y, double angle) {
+		this.x = x;
+		this.y = y;
+		this.angle = angle;
+	}
+
+	public boolean hasFoundObject() {
+		return foundObject;
+	}
+
+	public void setFoundObject(boolean foundObject) {
+		this.foundObject = foundObject;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		x = y = 0l;
+		angle = 0d;
+		foundObject = false;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.UPDATE_X)) {
+			x = in.nextLong();
+			return true;
+		} else if (name.equals(Constants.UPDATE_Y)) {
+			y = in.nextLong();
+			return true;
+		} else if (name.equals(Constants.UPDATE_ANGLE)) {
+			angle = in.nextDouble();
+			return true;
+		} else if (name.equals(Constants.PLAYER_FOUND_OBJECT)) {
+			foundObject = in.nextBoolean();
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.UPDATE_X).value(x);
+		out.name(Constants.UPDATE_Y).value(y);
+		out.name(Constants.UPDATE_ANGLE).value(angle);
+		out.name(Constants.PLAYER_FOUND_OBJECT).value(foundObject);
+	}
+
+	@Override
+	public boolean hasBinaryFormat() {
+		return true;
+	}
+
+	@Override
+	protected void readBinary(BinaryDecoder in) throws IOException {
+		super.readBinary(in);
+		x = in.readZigZag();
+		y = in.readZigZag();
+		angle = in.readDouble();
+		foundObject = in.readBoolean();
+	}
+
+	@Override
+	protected void writeBinary(BinaryEncoder out) {
+		super.writeBinary(out);
+		out.writeZigZag(x);
+		out.writeZigZag(y);
+		out.writeDouble(angle);
+		out.writeBoolean(foundObject);
+	}
+
+}
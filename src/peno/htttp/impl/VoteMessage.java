@@ -0,0 +1,165 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import peno.htttp.Constants;
+import peno.htttp.GameState;
+
+/**
+ * A reply to a join request.
+ * 
+ * <p>
+ * When accepted, the reply reports the state of the voting player as well as
+ * the game state known by that player.
+ * </p>
+ */
+public class VoteMessage extends JoinMessage {
+
+	private boolean result;
+	private boolean isReady;
+	private boolean isJoined;
+
+	private GameState gameState;
+	private Map<String, Integer> playerNumbers;
+	private Collection<String> missingPlayers;
+
+	private final Map<String, Integer> readPlayerNumbers = new HashMap<String, Integer>();
+	private final List<String> readMissingPlayers = new ArrayList<String>();
+
+	public boolean getResult() {
+		return result;
+	}
+
+	public void setResult(boolean result) {
+		this.result = result;
+	}
+
+	public boolean isReady() {
+		return isReady;
+	}
+
+	public void setReady(boolean isReady) {
+		this.isReady = isReady;
+	}
+
+	public boolean isJoined() {
+		return isJoined;
+	}
+
+	public void setJoined(boolean isJoined) {
+		this.isJoined = isJoined;
+	}
+
+	/**
+	 * Get the game state, or <code>null</code> if not present.
+	 */
+	public GameState getGameState() {
+		return gameState;
+	}
+
+	public void setGameState(GameState gameState) {
+		this.gameState = gameState;
+	}
+
+	/**
+	 * Get the player numbers, or <code>null</code> if not present.
+	 */
+	public Map<String, Integer> getPlayerNumbers() {
+		return playerNumbers;
+	}
+
+	public void setPlayerNumbers(Map<String, Integer> playerNumbers) {
+		this.playerNumbers = playerNumbers;
+	}
+
+	/**
+	 * Get the missing players, or <code>null</code> if not present.
+	 */
+	public Collection<String> getMissingPlayers() {
+		return missingPlayers;
+	}
+
+	public void setMissingPlayers(Collection<String> missingPlayers) {
+		this.missingPlayers = missingPlayers;
+	}
+
+	private void clearGameState() {
+		gameState = null;
+		playerNumbers = null;
+		missingPlayers = null;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		result = isReady = isJoined = false;
+		clearGameState();
+		readPlayerNumbers.clear();
+		readMissingPlayers.clear();
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.VOTE_RESULT)) {
+			result = in.nextBoolean();
+		} else if (name.equals(Constants.IS_READY)) {
+			isReady = in.nextBoolean();
+		} else if (name.equals(Constants.IS_JOINED)) {
+			isJoined = in.nextBoolean();
+		} else if (name.equals(Constants.GAME_STATE)) {
+			gameState = GameState.valueOf(in.nextString());
+		} else if (name.equals(Constants.PLAYER_NUMBERS)) {
+			in.beginObject();
+			while (in.hasNext()) {
+				String playerID = in.nextName();
+				readPlayerNumbers.put(playerID, in.nextInt());
+			}
+			in.endObject();
+			playerNumbers = readPlayerNumbers;
+		} else if (name.equals(Constants.MISSING_PLAYERS)) {
+			in.beginArray();
+			while (in.hasNext()) {
+				readMissingPlayers.add(in.nextString());
+			}
+			in.endArray();
+			missingPlayers = readMissingPlayers;
+		} else {
+			return super.readField(name, in);
+		}
+		return true;
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.VOTE_RESULT).value(result);
+		if (!result)
+			return;
+
+		out.name(Constants.IS_READY).value(isReady);
+		out.name(Constants.IS_JOINED).value(isJoined);
+		if (gameState != null) {
+			out.name(Constants.GAME_STATE).value(gameState.name());
+		}
+		if (playerNumbers != null) {
+			out.name(Constants.PLAYER_NUMBERS).beginObject();
+			for (Map.Entry<String, Integer> entry : playerNumbers.entrySet()) {
+				out.name(entry.getKey()).value(entry.getValue());
+			}
+			out.endObject();
+		}
+		if (missingPlayers != null) {
+			out.name(Constants.MISSING_PLAYERS).beginArray();
+			for (String missingPlayer : missingPlayers) {
+				out.value(missingPlayer);
+			}
+			out.endArray();
+		}
+	}
+
+}
@@ -1,21 +1,17 @@
 package peno.htttp.impl;
 
 import java.io.IOException;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import peno.htttp.Constants;
-
 import com.rabbitmq.client.AMQP.BasicProperties;
-import com.rabbitmq.client.Channel;
 
-public abstract class VoteRequester extends Requester {
+public abstract class VoteRequester extends Requester<VoteMessage> {
 
 	private final AtomicInteger votes = new AtomicInteger();
 	private volatile boolean isDone;
 
-	public VoteRequester(Channel channel, RequestProvider provider) throws IOException {
-		super(channel, provider);
+	public VoteRequester(ReplyConsumer replies) {
+		super(replies, new VoteMessage());
 	}
 
 	@Override
@@ -27,11 +23,11 @@ public abstract class VoteRequester extends Requester {
 	}
 
 	@Override
-	protected void handleResponse(Map<String, Object> message, BasicProperties props) {
+	protected void handleResponse(VoteMessage message, BasicProperties props) {
 		if (isDone())
 			return;
 
-		boolean isAccepted = (Boolean) message.get(Constants.VOTE_RESULT);
+		boolean isAccepted = message.getResult();
 		if (isAccepted) {
 			onAccepted(message);
 			if (votes.incrementAndGet() >= getRequiredVotes()) {
@@ -56,9 +52,9 @@ public abstract class VoteRequester extends Requester {
 
 	protected abstract int getRequiredVotes();
 
-	protected abstract void onAccepted(Map<String, Object> message);
+	protected abstract void onAccepted(VoteMessage message);
 
-	protected abstract void onRejected(Map<String, Object> message);
+	protected abstract void onRejected(VoteMessage message);
 
 	protected final void success() {
 		if (!isDone()) {
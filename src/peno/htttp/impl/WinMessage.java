@@ -0,0 +1,43 @@
+package peno.htttp.impl;
+
+import java.io.IOException;
+
+import peno.htttp.Constants;
+
+/**
+ * A message announcing that a team has won the game.
+ */
+public class WinMessage extends Message {
+
+	private int teamNumber;
+
+	public int getTeamNumber() {
+		return teamNumber;
+	}
+
+	public void setTeamNumber(int teamNumber) {
+		this.teamNumber = teamNumber;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		teamNumber = 0;
+	}
+
+	@Override
+	protected boolean readField(String name, JSONDecoder in) throws IOException {
+		if (name.equals(Constants.TEAM_NUMBER)) {
+			teamNumber = in.nextInt();
+			return true;
+		}
+		return super.readField(name, in);
+	}
+
+	@Override
+	protected void writeFields(JSONEncoder out) {
+		super.writeFields(out);
+		out.name(Constants.TEAM_NUMBER).value(teamNumber);
+	}
+
+}
@@ -0,0 +1,216 @@
+package peno.htttp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import peno.htttp.impl.JSONEncoder;
+import peno.htttp.impl.UpdateMessage;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+
+public class SpectatorClientTest {
+
+	private Consumer consumer;
+
+	private final List<String> batches = Collections.synchronizedList(new ArrayList<String>());
+	private final List<UpdateBatch> batchInstances = Collections.synchronizedList(new ArrayList<UpdateBatch>());
+	private final Semaphore entered = new Semaphore(0);
+	private final Semaphore proceed = new Semaphore(0);
+
+	private final Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { Channel.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					String name = method.getName();
+					if (name.equals("queueDeclare")) {
+						return declareOk();
+					} else if (name.equals("basicConsume")) {
+						consumer = (Consumer) args[args.length - 1];
+						return "consumer";
+					} else if (name.equals("isOpen")) {
+						return true;
+					}
+					return null;
+				}
+			});
+
+	private final Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { Connection.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("createChannel"))
+						return channel;
+					return null;
+				}
+			});
+
+	/**
+	 * Handler which records every batch, and waits in every batch until
+	 * allowed to proceed.
+	 */
+	private final BatchSpectatorHandler handler = (BatchSpectatorHandler) Proxy.newProxyInstance(getClass()
+			.getClassLoader(), new Class<?>[] { BatchSpectatorHandler.class }, new InvocationHandler() {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("playerUpdates")) {
+				UpdateBatch batch = (UpdateBatch) args[0];
+				batches.add(toString(batch));
+				batchInstances.add(batch);
+				entered.release();
+				proceed.tryAcquire(5, TimeUnit.SECONDS);
+			}
+			return null;
+		}
+
+		private String toString(UpdateBatch batch) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < batch.size(); i++) {
+				if (i > 0) {
+					sb.append(' ');
+				}
+				sb.append(batch.getPlayerDetails(i).getPlayerID()).append(batch.getX(i));
+				if (batch.hasFoundObject(i)) {
+					sb.append('*');
+				}
+			}
+			return sb.toString();
+		}
+	});
+
+	private SpectatorClient client;
+
+	private static AMQP.Queue.DeclareOk declareOk() {
+		return (AMQP.Queue.DeclareOk) Proxy.newProxyInstance(SpectatorClientTest.class.getClassLoader(),
+				new Class<?>[] { AMQP.Queue.DeclareOk.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						return "queue";
+					}
+				});
+	}
+
+	@Before
+	public void start() throws IOException {
+		client = new SpectatorClient(connection, handler, "game", 1);
+		client.start();
+	}
+
+	@After
+	public void stop() {
+		proceed.release(100);
+		client.stop();
+	}
+
+	private void update(String playerID, long x, boolean foundObject) throws IOException {
+		UpdateMessage message = new UpdateMessage();
+		message.setPlayerID(playerID);
+		message.setPlayerDetails(new PlayerDetails(playerID, PlayerType.VIRTUAL, 20, 20));
+		message.setPlayerNumber(1);
+		message.setPosition(x, 0, 0.0);
+		message.setFoundObject(foundObject);
+		JSONEncoder out = JSONEncoder.get();
+		message.write(out);
+		AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().contentType(Constants.CONTENT_TYPE_JSON)
+				.build();
+		consumer.handleDelivery("consumer", new Envelope(1, false, "game", Constants.UPDATE), props,
+				out.toByteArray());
+	}
+
+	private void awaitBatch() throws InterruptedException {
+		assertTrue("Batch not delivered", entered.tryAcquire(5, TimeUnit.SECONDS));
+	}
+
+	private void nextBatch() throws InterruptedException {
+		proceed.release();
+		awaitBatch();
+	}
+
+	@Test
+	public void batchesUpdatesInOrder() throws Exception {
+		update("a", 1, false);
+		// Collect into next batch while handling
+		awaitBatch();
+		update("a", 2, false);
+		update("b", 1, false);
+		update("a", 3, true);
+		update("a", 4, true);
+		nextBatch();
+		proceed.release();
+
+		assertEquals("[a1, a2 b1 a3* a4*]", batches.toString());
+		assertEquals(0, client.getCoalescedEvents());
+	}
+
+	@Test
+	public void conflatingMergesByPlayerAndFoundObject() throws Exception {
+		client.setConflatingUpdates(true);
+		update("a", 1, false);
+		awaitBatch();
+		update("a", 2, false);
+		update("b", 1, false);
+		// Replaces a2 in place
+		update("a", 3, false);
+		// Found object is never merged with an earlier state
+		update("a", 4, true);
+		update("a", 5, true);
+		nextBatch();
+		proceed.release();
+
+		assertEquals("[a1, a3 b1 a5*]", batches.toString());
+		assertEquals(2, client.getCoalescedEvents());
+	}
+
+	@Test
+	public void fullBatchMergesByPlayer() throws Exception {
+		client.setMaxPendingEvents(2);
+		update("a", 1, false);
+		awaitBatch();
+		update("a", 2, false);
+		update("b", 1, false);
+		// Batch is full
+		update("a", 3, false);
+		update("c", 1, false);
+		nextBatch();
+		proceed.release();
+
+		assertEquals("[a1, a3 b1 c1]", batches.toString());
+		assertEquals(1, client.getCoalescedEvents());
+	}
+
+	@Test
+	public void deliveredBatchesAreReused() throws Exception {
+		update("a", 1, false);
+		awaitBatch();
+		update("b", 1, false);
+		// First batch released before the second is handled
+		nextBatch();
+		update("c", 1, false);
+		nextBatch();
+		proceed.release();
+
+		assertEquals("[a1, b1, c1]", batches.toString());
+		assertNotSame(batchInstances.get(0), batchInstances.get(1));
+		assertSame(batchInstances.get(0), batchInstances.get(2));
+	}
+
+}
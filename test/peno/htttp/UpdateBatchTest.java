@@ -0,0 +1,82 @@
+package peno.htttp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class UpdateBatchTest {
+
+	private final UpdateBatch batch = new UpdateBatch();
+
+	private static PlayerDetails player(String playerID) {
+		return new PlayerDetails(playerID, PlayerType.VIRTUAL, 20, 20);
+	}
+
+	@Test
+	public void keepsUpdatesInOrder() {
+		PlayerDetails a = player("a");
+		batch.add(a, 1, 10, -10, 90.0, false);
+		batch.add(player("b"), 2, 20, -20, 180.0, true);
+		assertEquals(2, batch.size());
+		assertSame(a, batch.getPlayerDetails(0));
+		assertEquals(1, batch.getPlayerNumber(0));
+		assertEquals(10, batch.getX(0));
+		assertEquals(-10, batch.getY(0));
+		assertEquals(90.0, batch.getAngle(0), 0d);
+		assertFalse(batch.hasFoundObject(0));
+		assertEquals("b", batch.getPlayerDetails(1).getPlayerID());
+		assertTrue(batch.hasFoundObject(1));
+	}
+
+	@Test
+	public void growsBeyondInitialCapacity() {
+		for (int i = 0; i < 100; i++) {
+			batch.add(player("p" + i), 1, i, -i, 0.0, false);
+		}
+		assertEquals(100, batch.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals("p" + i, batch.getPlayerDetails(i).getPlayerID());
+			assertEquals(i, batch.getX(i));
+			assertEquals(-i, batch.getY(i));
+		}
+	}
+
+	@Test
+	public void replacesUpdateInPlace() {
+		batch.add(player("a"), 1, 1, 1, 0.0, false);
+		batch.add(player("b"), 2, 2, 2, 0.0, false);
+		batch.add(player("a"), 1, 3, 3, 0.0, true);
+		assertEquals(2, batch.lastIndexOf("a"));
+		assertEquals(1, batch.lastIndexOf("b"));
+		assertEquals(-1, batch.lastIndexOf("c"));
+
+		batch.set(1, player("b"), 2, 4, 4, 45.0, true);
+		assertEquals(3, batch.size());
+		assertEquals(4, batch.getX(1));
+		assertEquals(45.0, batch.getAngle(1), 0d);
+		assertTrue(batch.hasFoundObject(1));
+	}
+
+	@Test
+	public void clearedBatchIsReused() {
+		batch.add(player("a"), 1, 1, 1, 0.0, false);
+		batch.clear();
+		assertTrue(batch.isEmpty());
+		assertEquals(-1, batch.lastIndexOf("a"));
+
+		batch.add(player("b"), 2, 2, 2, 0.0, false);
+		assertEquals(1, batch.size());
+		assertEquals("b", batch.getPlayerDetails(0).getPlayerID());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void clearedUpdatesAreNotAccessible() {
+		batch.add(player("a"), 1, 1, 1, 0.0, false);
+		batch.clear();
+		batch.getX(0);
+	}
+
+}
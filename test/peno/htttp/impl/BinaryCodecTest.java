@@ -0,0 +1,110 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BinaryCodecTest {
+
+	private final BinaryEncoder encoder = BinaryEncoder.get();
+	private final BinaryDecoder decoder = new BinaryDecoder();
+
+	private BinaryDecoder decode() {
+		return decoder.reset(encoder.toByteArray());
+	}
+
+	@Test
+	public void varintLengths() {
+		long[] values = { 0, 0x7F, 0x80, 0x3FFF, 0x4000, Integer.MAX_VALUE, Long.MAX_VALUE, -1 };
+		int[] lengths = { 1, 1, 2, 2, 3, 5, 9, 10 };
+		for (int i = 0; i < values.length; i++) {
+			encoder.reset();
+			encoder.writeVarint(values[i]);
+			assertEquals("Length of " + values[i], lengths[i], encoder.getOutput().size());
+		}
+	}
+
+	@Test
+	public void varintRoundTrip() throws IOException {
+		long[] values = { 0, 1, 127, 128, 300, 16384, Integer.MAX_VALUE, 1L << 35, Long.MAX_VALUE, Long.MIN_VALUE,
+				-1 };
+		for (long value : values) {
+			encoder.writeVarint(value);
+		}
+		BinaryDecoder in = decode();
+		for (long value : values) {
+			assertEquals(value, in.readVarint());
+		}
+	}
+
+	@Test
+	public void zigZagRoundTrip() throws IOException {
+		long[] values = { 0, -1, 1, -64, 63, -65, 64, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE,
+				Long.MAX_VALUE };
+		for (long value : values) {
+			encoder.writeZigZag(value);
+		}
+		BinaryDecoder in = decode();
+		for (long value : values) {
+			assertEquals(value, in.readZigZag());
+		}
+	}
+
+	@Test
+	public void smallSignedValuesAreShort() {
+		// Small negative values must not take ten bytes
+		encoder.writeZigZag(-1);
+		encoder.writeZigZag(-64);
+		assertEquals(2, encoder.getOutput().size());
+	}
+
+	@Test
+	public void fixedWidthAndStrings() throws IOException {
+		encoder.writeByte(0xAB).writeBoolean(true).writeInt(-123456789).writeDouble(-87.25).writeString("")
+				.writeString("h\u00e9\u20ac\ud83d\ude00");
+		BinaryDecoder in = decode();
+		assertEquals(0xAB, in.readByte());
+		assertEquals(true, in.readBoolean());
+		assertEquals(-123456789, in.readInt());
+		assertEquals(-87.25, in.readDouble(), 0d);
+		assertEquals("", in.readString());
+		assertEquals("h\u00e9\u20ac\ud83d\ude00", in.readString());
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedVarint() throws IOException {
+		decoder.reset(new byte[] { (byte) 0x80, (byte) 0x80 }).readVarint();
+	}
+
+	@Test(expected = IOException.class)
+	public void overlongVarint() throws IOException {
+		byte[] input = new byte[11];
+		Arrays.fill(input, (byte) 0x80);
+		decoder.reset(input).readVarint();
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedString() throws IOException {
+		encoder.writeString("hello");
+		byte[] input = encoder.toByteArray();
+		decoder.reset(input, 0, input.length - 1).readString();
+	}
+
+	@Test(expected = IOException.class)
+	public void hugeStringLength() throws IOException {
+		// Must not overflow the end of input
+		encoder.writeVarint(Integer.MAX_VALUE).writeString("hello");
+		decoder.reset(encoder.toByteArray()).readString();
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedStringLength() throws IOException {
+		// Must not be truncated to a valid length
+		encoder.writeVarint((1L << 32) + 1).writeString("hello");
+		decoder.reset(encoder.toByteArray()).readString();
+	}
+
+}
@@ -0,0 +1,66 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressorTest {
+
+	private final Compressor compressor = Compressor.get();
+
+	private byte[] roundTrip(byte[] input) throws IOException {
+		byte[] deflated = compressor.deflate(input, 0, input.length);
+		return compressor.inflate(deflated).toByteArray();
+	}
+
+	@Test
+	public void emptyRoundTrip() throws IOException {
+		assertArrayEquals(new byte[0], roundTrip(new byte[0]));
+	}
+
+	@Test
+	public void compressibleRoundTrip() throws IOException {
+		// Larger than a single chunk
+		byte[] input = new byte[100000];
+		for (int i = 0; i < input.length; i++) {
+			input[i] = (byte) "{\"tiles\":[1,2,3]}".charAt(i % 17);
+		}
+		byte[] deflated = compressor.deflate(input, 0, input.length);
+		assertTrue(deflated.length < input.length / 10);
+		assertArrayEquals(input, compressor.inflate(deflated).toByteArray());
+	}
+
+	@Test
+	public void randomRoundTrip() throws IOException {
+		byte[] input = new byte[20000];
+		new Random(2013).nextBytes(input);
+		assertArrayEquals(input, roundTrip(input));
+	}
+
+	@Test
+	public void rangeRoundTrip() throws IOException {
+		byte[] input = "xxhello, hello, hello!xx".getBytes("UTF-8");
+		byte[] deflated = compressor.deflate(input, 2, input.length - 4);
+		assertArrayEquals(Arrays.copyOfRange(input, 2, input.length - 2), compressor.inflate(deflated)
+				.toByteArray());
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedPayload() throws IOException {
+		byte[] input = new byte[5000];
+		new Random(1).nextBytes(input);
+		byte[] deflated = compressor.deflate(input, 0, input.length);
+		compressor.inflate(Arrays.copyOf(deflated, deflated.length / 2));
+	}
+
+	@Test(expected = IOException.class)
+	public void malformedPayload() throws IOException {
+		compressor.inflate(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+	}
+
+}
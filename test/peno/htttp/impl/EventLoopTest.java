@@ -0,0 +1,199 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class EventLoopTest {
+
+	private final List<Runnable> drains = new ArrayList<Runnable>();
+	private final List<String> ran = new ArrayList<String>();
+
+	/**
+	 * Loop which only drains when asked to.
+	 */
+	private final EventLoop loop = new EventLoop(new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			drains.add(task);
+		}
+	});
+
+	private Runnable task(final String name) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				ran.add(name);
+			}
+		};
+	}
+
+	private void drain() {
+		while (!drains.isEmpty()) {
+			drains.remove(0).run();
+		}
+	}
+
+	@Test
+	public void conflatingKeepsNewestInPlace() {
+		loop.setConflating(true);
+		loop.executeLatest("x", null, task("x1"));
+		loop.executeLatest("y", null, task("y1"));
+		// Takes over the place of x1, before y
+		loop.executeLatest("x", null, task("x2"));
+		loop.executeLatest("y", null, task("y2"));
+		loop.executeLatest("x", null, task("x3"));
+		assertEquals(3, loop.getCoalescedCount());
+
+		drain();
+		assertEquals("[x3, y2]", ran.toString());
+	}
+
+	@Test
+	public void conflatingKeepsStateTransitions() {
+		loop.setConflating(true);
+		loop.executeLatest("x", false, task("x1"));
+		loop.executeLatest("x", false, task("x2"));
+		// Found object, must be observed
+		loop.executeLatest("x", true, task("x3"));
+		loop.executeLatest("x", true, task("x4"));
+		loop.executeLatest("x", false, task("x5"));
+		assertEquals(2, loop.getCoalescedCount());
+
+		drain();
+		assertEquals("[x2, x4, x5]", ran.toString());
+	}
+
+	@Test
+	public void conflatingQueuesAgainAfterRunning() {
+		loop.setConflating(true);
+		loop.executeLatest("x", null, task("x1"));
+		drain();
+		loop.executeLatest("x", null, task("x2"));
+		drain();
+		assertEquals("[x1, x2]", ran.toString());
+		assertEquals(0, loop.getCoalescedCount());
+	}
+
+	@Test
+	public void notConflatingKeepsAllUpdates() {
+		loop.executeLatest("x", null, task("x1"));
+		loop.executeLatest("x", null, task("x2"));
+		drain();
+		assertEquals("[x1, x2]", ran.toString());
+	}
+
+	@Test
+	public void controlOvertakesTelemetry() {
+		loop.setConflating(true);
+		loop.executeLatest("x", null, task("x1"));
+		loop.executeTelemetry(task("t"));
+		loop.execute(task("a"));
+		loop.executeLatest("x", null, task("x2"));
+		loop.execute(task("b"));
+
+		drain();
+		assertEquals("[a, b, x2, t]", ran.toString());
+	}
+
+	@Test
+	public void fullQueueOverflowsControl() {
+		loop.setCapacity(2);
+		loop.execute(task("a"));
+		loop.execute(task("b"));
+		// Queued without waiting for room
+		loop.execute(task("c"));
+		assertEquals(3, loop.getQueueDepth());
+		assertEquals(1, loop.getOverflowCount());
+
+		drain();
+		assertEquals("[a, b, c]", ran.toString());
+		assertEquals(0, loop.getQueueDepth());
+	}
+
+	@Test
+	public void fullQueueDropsTelemetryFirst() {
+		loop.setCapacity(2);
+		loop.executeLatest("x", null, task("x1"));
+		loop.execute(task("a"));
+		// Replaces the pending update
+		loop.executeLatest("x", null, task("x2"));
+		// Nothing pending to replace
+		loop.executeLatest("y", "found", task("y1"));
+		loop.execute(task("b"));
+		assertEquals(1, loop.getCoalescedCount());
+		assertEquals(0, loop.getDroppedCount());
+		assertEquals(2, loop.getOverflowCount());
+
+		drain();
+		// Control first, state transitions are never dropped
+		assertEquals("[a, b, x2, y1]", ran.toString());
+	}
+
+	@Test
+	public void fullQueueDropsSameStateTelemetry() {
+		loop.setCapacity(1);
+		loop.executeLatest("x", null, task("x1"));
+		drain();
+		loop.execute(task("a"));
+		// Same state as the previous task, which already ran
+		loop.executeLatest("x", null, task("x2"));
+		assertEquals(1, loop.getDroppedCount());
+
+		drain();
+		assertEquals("[x1, a]", ran.toString());
+	}
+
+	@Test
+	public void directRunsOnCaller() {
+		loop.setDirect(true);
+		loop.execute(task("a"));
+		loop.executeTelemetry(task("t"));
+		loop.executeLatest("x", null, task("x1"));
+		// Nothing queued
+		assertTrue(drains.isEmpty());
+		assertEquals(0, loop.getQueueDepth());
+		assertEquals("[a, t, x1]", ran.toString());
+	}
+
+	@Test
+	public void directSwallowsFailures() {
+		loop.setDirect(true);
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException();
+			}
+		});
+		loop.execute(task("a"));
+		assertEquals("[a]", ran.toString());
+	}
+
+	@Test
+	public void directCountsOverBudget() {
+		loop.setDirect(true);
+		loop.setTimeBudget(1, TimeUnit.MILLISECONDS);
+		loop.execute(task("a"));
+		assertEquals(0, loop.getOverBudgetCount());
+
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertEquals(1, loop.getOverBudgetCount());
+		assertTrue(loop.getMaxRunTime(TimeUnit.MILLISECONDS) >= 20);
+	}
+
+}
@@ -0,0 +1,156 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class JSONDecoderTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final JSONDecoder decoder = new JSONDecoder();
+
+	private String decodeString(String json) throws IOException {
+		return decoder.reset(json.getBytes(UTF8)).nextString();
+	}
+
+	@Test
+	public void encoderRoundTrip() throws IOException {
+		JSONEncoder out = JSONEncoder.get();
+		out.beginObject();
+		out.name("s").value("h\u00e9 \"q\"\n\ud83d\ude00");
+		out.name("l").value(Long.MIN_VALUE);
+		out.name("d").value(-87.125);
+		out.name("b").value(true);
+		out.name("a").beginArray().value(1).value(2).endArray();
+		out.endObject();
+
+		JSONDecoder in = decoder.reset(out.toByteArray());
+		in.beginObject();
+		assertTrue(in.hasNext());
+		assertEquals("s", in.nextName());
+		assertEquals("h\u00e9 \"q\"\n\ud83d\ude00", in.nextString());
+		assertTrue(in.hasNext());
+		assertEquals("l", in.nextName());
+		assertEquals(Long.MIN_VALUE, in.nextLong());
+		assertTrue(in.hasNext());
+		assertEquals("d", in.nextName());
+		assertEquals(-87.125, in.nextDouble(), 0d);
+		assertTrue(in.hasNext());
+		assertEquals("b", in.nextName());
+		assertTrue(in.nextBoolean());
+		assertTrue(in.hasNext());
+		assertEquals("a", in.nextName());
+		in.beginArray();
+		assertTrue(in.hasNext());
+		assertEquals(1, in.nextInt());
+		assertTrue(in.hasNext());
+		assertEquals(2, in.nextInt());
+		assertFalse(in.hasNext());
+		in.endArray();
+		assertFalse(in.hasNext());
+		in.endObject();
+	}
+
+	@Test
+	public void skipsNestedValues() throws IOException {
+		JSONDecoder in = decoder.reset(("{ \"skip\" : {\"a\":[1, {\"b\":\"}]\\\"\"}], \"c\":null},"
+				+ " \"n\": null, \"x\": 1.5e3 }").getBytes(UTF8));
+		in.beginObject();
+		assertTrue(in.hasNext());
+		assertEquals("skip", in.nextName());
+		in.skipValue();
+		assertTrue(in.hasNext());
+		assertEquals("n", in.nextName());
+		assertTrue(in.nextNull());
+		assertTrue(in.hasNext());
+		assertEquals("x", in.nextName());
+		assertEquals(1500d, in.nextDouble(), 0d);
+		assertFalse(in.hasNext());
+		in.endObject();
+	}
+
+	@Test
+	public void decodesLongsExactly() throws IOException {
+		assertEquals(1234567890123456789L, decoder.reset("1234567890123456789".getBytes(UTF8)).nextLong());
+		assertEquals(-1234567890123456789L, decoder.reset("-1234567890123456789".getBytes(UTF8)).nextLong());
+		assertEquals(Long.MAX_VALUE, decoder.reset(Long.toString(Long.MAX_VALUE).getBytes(UTF8)).nextLong());
+		assertEquals(Long.MIN_VALUE, decoder.reset(Long.toString(Long.MIN_VALUE).getBytes(UTF8)).nextLong());
+		// Fractions and exponents are truncated
+		assertEquals(1500L, decoder.reset("1.5e3".getBytes(UTF8)).nextLong());
+		assertEquals(-2L, decoder.reset("-2.75".getBytes(UTF8)).nextLong());
+	}
+
+	@Test(expected = IOException.class)
+	public void longOutOfRange() throws IOException {
+		decoder.reset("9223372036854775808".getBytes(UTF8)).nextLong();
+	}
+
+	@Test
+	public void decodesRangeOfInput() throws IOException {
+		byte[] input = "xx\"abc\"yy".getBytes(UTF8);
+		assertEquals("abc", decoder.reset(input, 2, 5).nextString());
+	}
+
+	@Test
+	public void sharesUnescapedStrings() throws IOException {
+		String first = decodeString("\"player\"");
+		assertSame(first, decodeString("\"player\""));
+	}
+
+	@Test(expected = IOException.class)
+	public void unterminatedString() throws IOException {
+		decodeString("\"abc");
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedObject() throws IOException {
+		JSONDecoder in = decoder.reset("{\"a\":1".getBytes(UTF8));
+		in.beginObject();
+		in.nextName();
+		in.nextInt();
+		in.hasNext();
+	}
+
+	@Test
+	public void escapes() throws IOException {
+		assertEquals("a\"b\\c/d\n\t\u00e9\u20ac", decodeString("\"a\\\"b\\\\c\\/d\\n\\t\\u00e9\\u20AC\""));
+	}
+
+	@Test
+	public void surrogatePair() throws IOException {
+		assertEquals("x\ud83d\ude00y", decodeString("\"x\\ud83d\\ude00y\""));
+	}
+
+	@Test(expected = IOException.class)
+	public void highSurrogateAtEnd() throws IOException {
+		decodeString("\"\\ud83d\"");
+	}
+
+	@Test(expected = IOException.class)
+	public void highSurrogateFollowedByCharacter() throws IOException {
+		decodeString("\"\\ud83dxxxxxx\"");
+	}
+
+	@Test(expected = IOException.class)
+	public void highSurrogateFollowedByNonSurrogate() throws IOException {
+		decodeString("\"\\ud83d\\u0041\"");
+	}
+
+	@Test(expected = IOException.class)
+	public void loneLowSurrogate() throws IOException {
+		decodeString("\"\\ude00\"");
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedEscape() throws IOException {
+		decodeString("\"\\ud83d\\ude0");
+	}
+
+}
@@ -0,0 +1,174 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.rabbitmq.client.Channel;
+
+public class PublisherTest {
+
+	private static final int NB_THREADS = 4;
+	private static final int NB_MESSAGES = 20000;
+
+	private final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicInteger concurrentPublishes = new AtomicInteger();
+	private final AtomicInteger overlaps = new AtomicInteger();
+	private final AtomicBoolean channelClosed = new AtomicBoolean();
+	private final AtomicInteger publishedAfterClose = new AtomicInteger();
+	private final IOException failure = new IOException("Channel failed");
+
+	private final Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class<?>[] { Channel.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("basicPublish")) {
+						if (concurrentPublishes.incrementAndGet() > 1) {
+							overlaps.incrementAndGet();
+						}
+						if (channelClosed.get()) {
+							publishedAfterClose.incrementAndGet();
+						}
+						concurrentPublishes.decrementAndGet();
+						if (args[1].equals("fail")) {
+							throw failure;
+						}
+						published.add((String) args[1]);
+					}
+					return null;
+				}
+			});
+
+	private final Publisher publisher = new Publisher(channel, new NamedThreadFactory("Publisher-%d"));
+
+	@Test
+	public void publishesInQueueOrder() throws Exception {
+		Thread[] threads = new Thread[NB_THREADS];
+		for (int t = 0; t < NB_THREADS; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < NB_MESSAGES; i++) {
+							publisher.publish("", thread + ":" + i, null, null);
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(publisher.flush(10, TimeUnit.SECONDS));
+		assertEquals(NB_THREADS * NB_MESSAGES, published.size());
+		assertEquals(0, overlaps.get());
+
+		// Messages of each thread stay in order
+		int[] next = new int[NB_THREADS];
+		for (String key : published) {
+			String[] parts = key.split(":");
+			int thread = Integer.parseInt(parts[0]);
+			assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+		}
+	}
+
+	@Test
+	public void closeRejectsOrPublishes() throws Exception {
+		final CountDownLatch started = new CountDownLatch(NB_THREADS);
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread[] threads = new Thread[NB_THREADS];
+		for (int t = 0; t < NB_THREADS; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						while (true) {
+							publisher.publish("", "key", null, null);
+							accepted.incrementAndGet();
+						}
+					} catch (IllegalStateException e) {
+						// Closed
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		started.await();
+		Thread.sleep(20);
+
+		assertTrue(publisher.close(10, TimeUnit.SECONDS));
+		channelClosed.set(true);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(publisher.isClosed());
+		assertEquals(0, publishedAfterClose.get());
+		assertEquals(accepted.get(), published.size());
+		assertEquals(0, publisher.getQueueDepth());
+	}
+
+	@Test
+	public void failureIsTerminal() throws Exception {
+		// Publish once all messages are queued
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		Publisher publisher = new Publisher(channel, new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				tasks.add(task);
+			}
+		});
+		publisher.publish("", "first", null, null);
+		publisher.publish("", "fail", null, null);
+		publisher.publish("", "after", null, null);
+		tasks.remove(0).run();
+		assertTrue(tasks.isEmpty());
+		assertSame(failure, publisher.getFailure());
+
+		// Nothing after the failed message is published
+		assertEquals(1, published.size());
+		assertEquals("first", published.get(0));
+
+		// Every later caller sees the failure
+		for (int i = 0; i < 2; i++) {
+			try {
+				publisher.publish("", "later", null, null);
+				fail("Expected failure");
+			} catch (IOException e) {
+				assertSame(failure, e.getCause());
+			}
+		}
+		assertEquals(0, publisher.getQueueDepth());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedRejectsPublish() throws Exception {
+		assertTrue(publisher.close(1, TimeUnit.SECONDS));
+		assertFalse(publisher.getQueueDepth() > 0);
+		publisher.publish("", "key", null, null);
+	}
+
+}
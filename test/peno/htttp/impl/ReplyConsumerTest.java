@@ -0,0 +1,105 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.LongString;
+
+public class ReplyConsumerTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static Connection connection(final Map<String, Object> serverProperties) {
+		return (Connection) Proxy.newProxyInstance(ReplyConsumerTest.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("getServerProperties"))
+							return serverProperties;
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private static LongString longString(String value) {
+		final byte[] bytes = value.getBytes(UTF8);
+		return (LongString) Proxy.newProxyInstance(ReplyConsumerTest.class.getClassLoader(),
+				new Class<?>[] { LongString.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("getBytes"))
+							return bytes;
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private static boolean supportsVersion(Object version) {
+		Map<String, Object> serverProperties = new HashMap<String, Object>();
+		serverProperties.put("version", version);
+		return ReplyConsumer.supportsDirectReplyTo(connection(serverProperties));
+	}
+
+	private static boolean supportsCapability(Object capability, String version) {
+		Map<String, Object> serverProperties = new HashMap<String, Object>();
+		serverProperties.put("capabilities", Collections.singletonMap("direct_reply_to", capability));
+		serverProperties.put("version", version);
+		return ReplyConsumer.supportsDirectReplyTo(connection(serverProperties));
+	}
+
+	@Test
+	public void capabilityOverridesVersion() {
+		assertTrue(supportsCapability(true, "3.3.5"));
+		assertFalse(supportsCapability(false, "3.4.0"));
+	}
+
+	@Test
+	public void missingCapabilityFallsBackToVersion() {
+		Map<String, Object> serverProperties = new HashMap<String, Object>();
+		serverProperties.put("capabilities", Collections.singletonMap("publisher_confirms", true));
+		serverProperties.put("version", "3.4.0");
+		assertTrue(ReplyConsumer.supportsDirectReplyTo(connection(serverProperties)));
+	}
+
+	@Test
+	public void versionFromRabbitMQ34() {
+		assertTrue(supportsVersion("3.4.0"));
+		assertTrue(supportsVersion("3.12.1"));
+		assertTrue(supportsVersion("4.0"));
+		assertFalse(supportsVersion("3.3.5"));
+		assertFalse(supportsVersion("2.8.7"));
+	}
+
+	@Test
+	public void receivedVersionIsUnwrapped() {
+		assertTrue(supportsVersion(longString("3.4.0")));
+		assertFalse(supportsVersion(longString("3.3.5")));
+	}
+
+	@Test
+	public void malformedVersionIsUnsupported() {
+		assertFalse(supportsVersion(""));
+		assertFalse(supportsVersion("3"));
+		assertFalse(supportsVersion("three.four"));
+		assertFalse(supportsVersion("3.x.0"));
+		assertFalse(supportsVersion(null));
+	}
+
+	@Test
+	public void missingServerProperties() {
+		assertFalse(ReplyConsumer.supportsDirectReplyTo(connection(null)));
+		assertFalse(ReplyConsumer.supportsDirectReplyTo(connection(new HashMap<String, Object>())));
+	}
+
+}
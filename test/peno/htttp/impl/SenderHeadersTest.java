@@ -0,0 +1,132 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import peno.htttp.Constants;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.LongString;
+
+public class SenderHeadersTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Channel channel = (Channel) Proxy.newProxyInstance(SenderHeadersTest.class.getClassLoader(),
+			new Class<?>[] { Channel.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					return null;
+				}
+			});
+
+	private final List<String> handled = new ArrayList<String>();
+
+	/**
+	 * Consumer which drops its own messages, like the consumers of a player.
+	 */
+	private class LocalFilterConsumer extends Consumer {
+
+		public LocalFilterConsumer() throws IOException {
+			super(channel, "queue");
+			register(Constants.JOIN, new Message(), new MessageHandler<Message>() {
+				@Override
+				public void handleMessage(Message message, BasicProperties props) throws IOException {
+					handled.add(message.getPlayerID());
+				}
+			});
+		}
+
+		@Override
+		protected boolean accept(String topic, BasicProperties props) {
+			return !"local".equals(SenderHeaders.getClientID(props));
+		}
+
+	}
+
+	private static BasicProperties props(Map<String, Object> headers) {
+		return new AMQP.BasicProperties.Builder().contentType(Constants.CONTENT_TYPE_JSON).headers(headers)
+				.build();
+	}
+
+	private static LongString longString(String value) {
+		final byte[] bytes = value.getBytes(UTF8);
+		return (LongString) Proxy.newProxyInstance(SenderHeadersTest.class.getClassLoader(),
+				new Class<?>[] { LongString.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("getBytes"))
+							return bytes;
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private static byte[] body(String playerID) {
+		return ("{\"playerID\":\"" + playerID + "\"}").getBytes(UTF8);
+	}
+
+	@Test
+	public void createdHeadersRoundTrip() {
+		BasicProperties props = props(SenderHeaders.create("client", "player", 3));
+		assertEquals("client", SenderHeaders.getClientID(props));
+		assertEquals("player", SenderHeaders.getPlayerID(props));
+		assertEquals(3, SenderHeaders.getPlayerNumber(props));
+		assertEquals(Constants.PROTOCOL_VERSION, props.getHeaders().get(Constants.HEADER_VERSION));
+	}
+
+	@Test
+	public void undeterminedPlayerNumberIsOmitted() {
+		Map<String, Object> headers = SenderHeaders.create("client", "player", 0);
+		assertFalse(headers.containsKey(Constants.HEADER_PLAYER_NUMBER));
+		assertEquals(0, SenderHeaders.getPlayerNumber(headers));
+	}
+
+	@Test
+	public void receivedStringsAreUnwrapped() {
+		Map<String, Object> headers = new HashMap<String, Object>();
+		headers.put(Constants.HEADER_CLIENT_ID, longString("cli\u00EBnt"));
+		headers.put(Constants.HEADER_PLAYER_ID, longString("player"));
+		BasicProperties props = props(headers);
+		assertEquals("cli\u00EBnt", SenderHeaders.getClientID(props));
+		assertEquals("player", SenderHeaders.getPlayerID(props));
+	}
+
+	@Test
+	public void missingHeaders() {
+		BasicProperties props = props(null);
+		assertNull(SenderHeaders.getClientID(props));
+		assertNull(SenderHeaders.getPlayerID(props));
+		assertEquals(0, SenderHeaders.getPlayerNumber(props));
+	}
+
+	@Test
+	public void acceptFiltersBeforeDecoding() throws IOException {
+		Consumer consumer = new LocalFilterConsumer();
+		Envelope envelope = new Envelope(1, false, "game", Constants.JOIN);
+		// Local message is dropped, even though its body is malformed
+		consumer.handleDelivery("tag", envelope, props(SenderHeaders.create("local", "me", 0)),
+				"not json".getBytes(UTF8));
+		consumer.handleDelivery("tag", envelope, props(SenderHeaders.create("remote", "other", 0)), body("other"));
+		// Clients without sender headers are accepted
+		consumer.handleDelivery("tag", envelope, props(null), body("legacy"));
+		assertEquals("[other, legacy]", handled.toString());
+	}
+
+}
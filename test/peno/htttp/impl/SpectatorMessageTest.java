@@ -0,0 +1,80 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import peno.htttp.PlayerDetails;
+import peno.htttp.PlayerType;
+
+public class SpectatorMessageTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private UpdateMessage createUpdate() {
+		UpdateMessage message = new UpdateMessage();
+		message.setPlayerID("brons");
+		message.setPlayerDetails(new PlayerDetails("brons", PlayerType.VIRTUAL, 28.5, 20.25));
+		message.setPlayerNumber(3);
+		message.setPosition(1043, -217, 87.5);
+		message.setFoundObject(true);
+		return message;
+	}
+
+	private static void assertUpdate(UpdateMessage message) {
+		assertEquals("brons", message.getPlayerID());
+		assertEquals("brons", message.getPlayerDetails().getPlayerID());
+		assertEquals(PlayerType.VIRTUAL, message.getPlayerDetails().getType());
+		assertEquals(28.5, message.getPlayerDetails().getWidth(), 0d);
+		assertEquals(20.25, message.getPlayerDetails().getHeight(), 0d);
+		assertEquals(3, message.getPlayerNumber());
+		assertEquals(1043, message.getX());
+		assertEquals(-217, message.getY());
+		assertEquals(87.5, message.getAngle(), 0d);
+		assertEquals(true, message.hasFoundObject());
+	}
+
+	private static byte[] toBinary(Message message) {
+		BinaryEncoder out = BinaryEncoder.get();
+		message.write(out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void jsonRoundTrip() throws IOException {
+		JSONEncoder out = JSONEncoder.get();
+		createUpdate().write(out);
+		UpdateMessage message = new UpdateMessage();
+		message.read(new JSONDecoder().reset(out.toByteArray()));
+		assertUpdate(message);
+	}
+
+	@Test
+	public void binaryRoundTrip() throws IOException {
+		UpdateMessage message = new UpdateMessage();
+		message.read(new BinaryDecoder().reset(toBinary(createUpdate())));
+		assertUpdate(message);
+	}
+
+	@Test(expected = IOException.class)
+	public void unknownBinaryPlayerType() throws IOException {
+		byte[] body = toBinary(createUpdate());
+		// Version, player ID, then player type
+		int typeOffset = 1 + 1 + "brons".length() + 1 + "brons".length();
+		assertEquals(PlayerType.VIRTUAL.ordinal(), body[typeOffset]);
+		body[typeOffset] = (byte) PlayerType.values().length;
+		new UpdateMessage().read(new BinaryDecoder().reset(body));
+	}
+
+	@Test(expected = IOException.class)
+	public void unknownJSONPlayerType() throws IOException {
+		JSONEncoder out = JSONEncoder.get();
+		createUpdate().write(out);
+		String json = new String(out.toByteArray(), UTF8).replace("\"VIRTUAL\"", "\"ROBOT\"");
+		new UpdateMessage().read(new JSONDecoder().reset(json.getBytes(UTF8)));
+	}
+
+}
@@ -0,0 +1,139 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+	private static final int NB_KEYS = 8;
+	private static final int NB_ROUNDS = 200;
+	private static final int FENCE_EVERY = 10;
+
+	/**
+	 * Fewer threads than stripes, so suspended stripes must not hold a thread.
+	 */
+	private final ExecutorService threads = Executors.newFixedThreadPool(2);
+	private final StripedExecutor executor = new StripedExecutor(4, threads);
+
+	private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger fenceOverlaps = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		threads.shutdownNow();
+	}
+
+	private Runnable task(final String entry) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				running.incrementAndGet();
+				log.add(entry);
+				Thread.yield();
+				running.decrementAndGet();
+			}
+		};
+	}
+
+	private Runnable fence(final String entry) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				// Fences run alone
+				if (running.get() != 0) {
+					fenceOverlaps.incrementAndGet();
+				}
+				log.add(entry);
+			}
+		};
+	}
+
+	private void awaitFence() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		executor.executeFenced(new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue("Fence did not complete", done.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void fencesSeparateRounds() throws InterruptedException {
+		for (int round = 0; round < NB_ROUNDS; round++) {
+			for (int key = 0; key < NB_KEYS; key++) {
+				executor.execute("key" + key, task(key + ":" + round));
+			}
+			if (round % FENCE_EVERY == FENCE_EVERY - 1) {
+				executor.executeFenced(fence("fence:" + round));
+			}
+		}
+		awaitFence();
+
+		assertEquals(0, fenceOverlaps.get());
+		assertEquals(NB_ROUNDS * NB_KEYS + NB_ROUNDS / FENCE_EVERY, log.size());
+		Map<String, Integer> lastRounds = new HashMap<String, Integer>();
+		int lastFence = -1;
+		for (String entry : log) {
+			String[] parts = entry.split(":");
+			int round = Integer.parseInt(parts[1]);
+			if (parts[0].equals("fence")) {
+				// All tasks of earlier rounds ran before the fence
+				for (int key = 0; key < NB_KEYS; key++) {
+					assertEquals(entry, Integer.valueOf(round), lastRounds.get(String.valueOf(key)));
+				}
+				lastFence = round;
+			} else {
+				// Tasks of a key run in order, and no later round overtakes a fence
+				Integer last = lastRounds.get(parts[0]);
+				assertEquals(entry, (last == null) ? 0 : last + 1, round);
+				assertTrue(entry, round > lastFence);
+				lastRounds.put(parts[0], round);
+			}
+		}
+	}
+
+	@Test
+	public void concurrentFencesDoNotDeadlock() throws InterruptedException {
+		Thread[] submitters = new Thread[4];
+		for (int i = 0; i < submitters.length; i++) {
+			final int submitter = i;
+			submitters[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int round = 0; round < NB_ROUNDS; round++) {
+						executor.execute("key" + (round % NB_KEYS), task(submitter + ":" + round));
+						if (round % FENCE_EVERY == 0) {
+							executor.executeFenced(fence("fence:" + round));
+						}
+					}
+				}
+			};
+			submitters[i].start();
+		}
+		for (Thread submitter : submitters) {
+			submitter.join();
+		}
+		awaitFence();
+
+		assertEquals(0, fenceOverlaps.get());
+		assertEquals(submitters.length * (NB_ROUNDS + NB_ROUNDS / FENCE_EVERY), log.size());
+	}
+
+}
@@ -0,0 +1,147 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TilesMessageTest {
+
+	private final TileDictionary sent = new TileDictionary();
+	private final TilesMessage received = new TilesMessage();
+
+	private byte[] encode(String... tokens) {
+		TilesMessage message = new TilesMessage();
+		message.setPlayerID("sender");
+		message.setDictionary(sent);
+		for (int i = 0; i < tokens.length; i++) {
+			message.addTile(i, -i, tokens[i]);
+		}
+		BinaryEncoder out = BinaryEncoder.get();
+		message.write(out);
+		return out.toByteArray();
+	}
+
+	private void decode(byte[] body) throws IOException {
+		received.read(new BinaryDecoder().reset(body));
+	}
+
+	private void assertTokens(String... tokens) {
+		assertEquals(tokens.length, received.getNbTiles());
+		for (int i = 0; i < tokens.length; i++) {
+			assertEquals(i, received.getTileX(i));
+			assertEquals(-i, received.getTileY(i));
+			assertEquals(tokens[i], received.getTileToken(i));
+		}
+	}
+
+	@Test
+	public void messageScopedRoundTrip() throws IOException {
+		TilesMessage message = new TilesMessage();
+		message.setPlayerID("sender");
+		message.addTile(3, 4, "N");
+		message.addTile(-7, 4, "N");
+		message.addTile(1000000, -1000000, "SE");
+		BinaryEncoder out = BinaryEncoder.get();
+		message.write(out);
+
+		decode(out.toByteArray());
+		assertFalse(received.isOutOfSync());
+		assertEquals("sender", received.getPlayerID());
+		assertEquals(3, received.getNbTiles());
+		assertEquals(-7, received.getTileX(1));
+		assertEquals(1000000, received.getTileX(2));
+		assertEquals(-1000000, received.getTileY(2));
+		assertEquals("SE", received.getTileToken(2));
+	}
+
+	@Test
+	public void sharedDictionaryRoundTrip() throws IOException {
+		decode(encode("N", "E", "N"));
+		assertTokens("N", "E", "N");
+		decode(encode("E", "S", "N", "S"));
+		assertFalse(received.isOutOfSync());
+		assertTokens("E", "S", "N", "S");
+		assertEquals(3, received.getDictionary().size());
+	}
+
+	@Test
+	public void missedMessageIsOutOfSync() throws IOException {
+		decode(encode("N"));
+		// Lost, defines E
+		encode("E");
+		decode(encode("E", "S"));
+		assertTrue(received.isOutOfSync());
+		assertNull(received.getTileToken(0));
+		assertEquals("S", received.getTileToken(1));
+
+		// Stays out of sync for the rest of the session
+		decode(encode("N"));
+		assertTrue(received.isOutOfSync());
+
+		// Recovers in a new session
+		sent.reset();
+		decode(encode("S", "N"));
+		assertFalse(received.isOutOfSync());
+		assertTokens("S", "N");
+	}
+
+	@Test
+	public void failedPublishIsDefinedAgain() throws IOException {
+		decode(encode("N"));
+		// Not published, undo new codes
+		int nbCodes = sent.size();
+		encode("E", "S");
+		sent.truncate(nbCodes);
+		assertEquals(-1, sent.getCode("E"));
+
+		decode(encode("S", "E"));
+		assertFalse(received.isOutOfSync());
+		assertTokens("S", "E");
+	}
+
+	@Test
+	public void duplicateMessageDefinesAgain() throws IOException {
+		byte[] first = encode("N", "E");
+		decode(first);
+		decode(first);
+		assertFalse(received.isOutOfSync());
+		assertTokens("N", "E");
+		decode(encode("E", "W"));
+		assertTokens("E", "W");
+	}
+
+	@Test(expected = IOException.class)
+	public void unknownCodeInSyncIsMalformed() throws IOException {
+		BinaryEncoder out = BinaryEncoder.get();
+		out.writeByte(Message.BINARY_VERSION).writeString("sender");
+		out.writeVarint(TileDictionary.MESSAGE_SESSION).writeVarint(0);
+		out.writeVarint(1).writeZigZag(0).writeZigZag(0).writeVarint(5);
+		decode(out.toByteArray());
+	}
+
+	@Test(expected = IOException.class)
+	public void negativeTileCountIsMalformed() throws IOException {
+		BinaryEncoder out = BinaryEncoder.get();
+		out.writeByte(Message.BINARY_VERSION).writeString("sender");
+		out.writeVarint(TileDictionary.MESSAGE_SESSION).writeVarint(0);
+		out.writeVarint(-1L);
+		decode(out.toByteArray());
+	}
+
+	@Test(expected = IOException.class)
+	public void tileCountBeyondInputIsMalformed() throws IOException {
+		BinaryEncoder out = BinaryEncoder.get();
+		out.writeByte(Message.BINARY_VERSION).writeString("sender");
+		out.writeVarint(TileDictionary.MESSAGE_SESSION).writeVarint(0);
+		// Room for two tiles at most
+		out.writeVarint(3).writeZigZag(0).writeZigZag(0).writeVarint(0);
+		out.writeZigZag(0).writeZigZag(0).writeVarint(0);
+		decode(out.toByteArray());
+	}
+
+}
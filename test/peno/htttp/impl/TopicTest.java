@@ -0,0 +1,50 @@
+package peno.htttp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import peno.htttp.Constants;
+
+public class TopicTest {
+
+	@Test
+	public void resolvesEveryTopic() {
+		for (Topic topic : Topic.values()) {
+			assertSame(topic, Topic.forName(topic.getName()));
+			// Not only by identity
+			assertSame(topic, Topic.forName(new String(topic.getName())));
+		}
+	}
+
+	@Test
+	public void rejectsOtherRoutingKeys() {
+		assertNull(Topic.forName(null));
+		assertNull(Topic.forName(""));
+		assertNull(Topic.forName("x"));
+		assertNull(Topic.forName("team.1.tiles"));
+		assertNull(Topic.forName("amq.gen-reply"));
+		for (Topic topic : Topic.values()) {
+			String name = topic.getName();
+			// Same length, first and last character
+			String similar = name.charAt(0) + name.substring(1, name.length() - 1).toUpperCase()
+					+ name.charAt(name.length() - 1);
+			if (!similar.equals(name)) {
+				assertNull(similar, Topic.forName(similar));
+			}
+			assertNull(Topic.forName(name + "s"));
+			assertNull(Topic.forName(name.substring(1)));
+		}
+	}
+
+	@Test
+	public void priorities() {
+		assertEquals(Constants.PRIORITY_TELEMETRY, Topic.priorityOf(Constants.UPDATE));
+		assertEquals(Constants.PRIORITY_TELEMETRY, Topic.priorityOf(Constants.HEARTBEAT));
+		assertEquals(Constants.PRIORITY_CONTROL, Topic.priorityOf(Constants.JOINED));
+		assertEquals(Constants.PRIORITY_CONTROL, Topic.priorityOf("team.1.tiles"));
+	}
+
+}